@@ -0,0 +1,31 @@
+package simROHC;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate (gc.alloc.rate.norm, in bytes per operation) next to the time of each benchmark.
+ * The results are written as a table to the standard output and as JSON to the given file, to be compared with baseline.json.
+ *
+ */
+public class BenchmarkMain {
+	/**
+	 * @param args	the JSON file to write, results.json by default, then an optional regular expression selecting the benchmarks
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		String fileResult = (args.length > 0 ? args[0] : "results.json");
+		String include = (args.length > 1 ? args[1] : "simROHC\\..*Benchmark");
+		Options options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(fileResult)
+				.build();
+		new Runner(options).run();
+	}
+}
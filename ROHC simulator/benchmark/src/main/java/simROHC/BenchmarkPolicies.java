@@ -0,0 +1,47 @@
+package simROHC;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *
+ * Synthetic policies for the benchmarks, so that they do not depend on the output of pomdpsol.
+ *
+ */
+final class BenchmarkPolicies {
+	private BenchmarkPolicies() {
+	}
+
+	/**
+	 * A policy of random vectors, with values in the range of the ones of pomdpsol
+	 * @param nState	the length of the vectors, 4 + W
+	 * @param nVector	the number of vectors
+	 * @param seed
+	 * @return the policy
+	 */
+	static AlphaVectorPolicy random(int nState, int nVector, long seed) {
+		Xoroshiro128Plus rng = new Xoroshiro128Plus(seed);
+		double [] alpha = new double [nVector * nState];
+		int [] action = new int [nVector];
+		for (int p = 0; p < nVector; p++) {
+			action[p] = p % 3;
+			for (int s = 0; s < nState; s++) alpha[p * nState + s] = 5 + 10 * rng.nextDouble();
+		}
+		return new AlphaVectorPolicy(nState, alpha, action);
+	}
+
+	/**
+	 * Write a random policy as a .policy file in a temporary directory
+	 * @param nState	the length of the vectors, 4 + W
+	 * @param nVector	the number of vectors
+	 * @return the .policy file, deleted when the JVM exits
+	 * @throws IOException
+	 */
+	static File write(int nState, int nVector) throws IOException {
+		File file = File.createTempFile("bench_" + nState + "_" + nVector + "_", ".policy");
+		file.deleteOnExit();
+		new File(file.getPath() + PolicyCache.EXTENSION).deleteOnExit();
+		PolicyCache.writeXml(random(nState, nVector, 20151231L), file.getPath());
+		return file;
+	}
+}
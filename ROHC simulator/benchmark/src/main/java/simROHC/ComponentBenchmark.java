@@ -0,0 +1,65 @@
+package simROHC;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The cost of one step of the U-mode compressor and of the decompressor, without their logs.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ComponentBenchmark {
+	CompressorTimer compressorTimer;
+	Decompressor decompressor;
+	/** A channel and packet sequence replayed by the decompressor */
+	boolean [] channelStates;
+	int [] typePackets;
+	int iPacket;
+
+	@Setup
+	public void setup() {
+		compressorTimer = new CompressorTimer(3, 10, 1);
+		compressorTimer.setLogEnabled(false);
+		decompressor = new Decompressor(8);
+		decompressor.setLogEnabled(false);
+
+		Channel channel = new Channel(0.2, 8, new Xoroshiro128Plus(1));
+		channel.setLogEnabled(false);
+		channelStates = new boolean [1024];
+		typePackets = new int [1024];
+		for (int i = 0; i < 1024; i++) {
+			channelStates[i] = channel.getChannelState();
+			typePackets[i] = compressorTimer.transmit();
+			channel.next();
+		}
+		compressorTimer.reset();
+	}
+
+	@Benchmark
+	public int transmitTimer() {
+		return compressorTimer.transmit();
+	}
+
+	@Benchmark
+	public int decompressorNext() {
+		int i = (iPacket++) & 1023;
+		decompressor.next(channelStates[i], typePackets[i]);
+		return decompressor.getStateCode();
+	}
+}
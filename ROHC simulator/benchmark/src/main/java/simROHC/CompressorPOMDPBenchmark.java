@@ -0,0 +1,71 @@
+package simROHC;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The cost of one decision and of one belief update of the POMDP compressor, across W and policy sizes.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressorPOMDPBenchmark {
+	@Param({"4", "8", "16"})
+	int W;
+
+	@Param({"60", "600", "6000"})
+	int nVector;
+
+	CompressorPOMDP compressor;
+	double [] belief;
+	double [] beliefNext;
+	int iPacket;
+
+	@Setup
+	public void setup() {
+		Channel channel = new Channel(0.2, 8, new Xoroshiro128Plus(1));
+		channel.setLogEnabled(false);
+		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, 0.1, 0.1, new Xoroshiro128Plus(2));
+		compressor = new CompressorPOMDP(W, channel.pBG, channel.pGB, channelEstimator, BenchmarkPolicies.random(4 + W, nVector, 3));
+		compressor.setLogEnabled(false);
+		belief = compressor.belief.data.clone();
+		beliefNext = new double [belief.length];
+	}
+
+	/** A decision and a belief update, the belief being reset every 200 packets as in a session */
+	@Benchmark
+	public int transmit() {
+		if (++iPacket == 200) {
+			iPacket = 0;
+			compressor.reset();
+		}
+		return compressor.transmit();
+	}
+
+	/** A belief update alone, alternating the observations */
+	@Benchmark
+	public double updateBelief() {
+		iPacket++;
+		double likelihood = compressor.updateBelief(belief, iPacket % 3, (iPacket & 4) != 0, beliefNext);
+		double [] tmp = belief;
+		belief = beliefNext;
+		beliefNext = tmp;
+		return likelihood;
+	}
+}
@@ -0,0 +1,56 @@
+package simROHC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The cost of loading a large .policy file, the way {@link CompressorPOMDP#parsePolicy(String)} does the first time (parsing the XML)
+ * and the following times (mapping the compiled file), bypassing the cache of the JVM.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PolicyParseBenchmark {
+	@Param({"1000", "10000"})
+	int nVector;
+
+	File filePolicy;
+	File fileCompiled;
+
+	@Setup
+	public void setup() throws IOException, XMLStreamException {
+		filePolicy = BenchmarkPolicies.write(12, nVector);
+		fileCompiled = new File(filePolicy.getPath() + PolicyCache.EXTENSION);
+		PolicyCache.load(filePolicy.getPath()); // Writes the compiled file
+	}
+
+	@Benchmark
+	public AlphaVectorPolicy parseXml() throws IOException, XMLStreamException {
+		return PolicyCache.parseXml(filePolicy);
+	}
+
+	@Benchmark
+	public AlphaVectorPolicy readCompiled() throws IOException {
+		return PolicyCache.readCompiled(fileCompiled, filePolicy);
+	}
+}
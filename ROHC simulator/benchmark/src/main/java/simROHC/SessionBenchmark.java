@@ -0,0 +1,48 @@
+package simROHC;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * End-to-end throughput: sessions of 200 packets of the POMDP and the U-mode compressors per second, on one thread, as {@link MonteCarloEngine} runs them.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionBenchmark {
+	SessionRunner runner;
+	SummarySession summaryPOMDP;
+	SummarySession summaryTimer;
+	long iRun;
+
+	@Setup
+	public void setup() throws IOException {
+		String filename = BenchmarkPolicies.write(12, 60).getPath();
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, filename, 200);
+		runner = new SessionRunner(params, 20151231L);
+		summaryPOMDP = new SummarySession(params.N);
+		summaryTimer = new SummarySession(params.N);
+	}
+
+	@Benchmark
+	public SummarySession session() {
+		runner.runSession(iRun++, summaryPOMDP, summaryTimer);
+		return summaryPOMDP;
+	}
+}
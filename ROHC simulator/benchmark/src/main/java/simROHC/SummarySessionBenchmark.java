@@ -0,0 +1,67 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * The cost of summarizing a session of 200 packets from its logs, and of adding a summary to a cumulative one.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SummarySessionBenchmark {
+	static final int N = 200;
+
+	List<Integer> logPacketType;
+	List<Boolean> logChannel;
+	List<Decompressor.LogEntry> logDecompressor;
+	SummarySession summary;
+	SummarySession summaryCum;
+
+	@Setup
+	public void setup() {
+		Channel channel = new Channel(0.2, 8, new Xoroshiro128Plus(1));
+		CompressorTimer compressor = new CompressorTimer(3, 10, 1);
+		Decompressor decompressor = new Decompressor(8);
+		logPacketType = new ArrayList<Integer> ();
+		for (int n = 0; n < N; n++) {
+			int typePacket = compressor.transmit();
+			logPacketType.add(typePacket);
+			decompressor.next(channel.getChannelState(), typePacket);
+			channel.next();
+		}
+		logChannel = new ArrayList<Boolean> (channel.log);
+		logDecompressor = new ArrayList<Decompressor.LogEntry> (decompressor.log);
+
+		summary = construct();
+		summaryCum = new SummarySession(N);
+	}
+
+	@Benchmark
+	public SummarySession construct() {
+		return new SummarySession(logPacketType, logChannel, logDecompressor, 80, 16, 4, 20);
+	}
+
+	@Benchmark
+	public SummarySession sum() {
+		summaryCum.sum(summary);
+		return summaryCum;
+	}
+}
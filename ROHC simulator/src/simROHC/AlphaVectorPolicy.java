@@ -0,0 +1,120 @@
+package simROHC;
+
+/**
+ *
+ * A POMDP policy represented by a set of alpha vectors, each associated to an action.
+ * The vectors are stored as one contiguous row-major matrix, so that the best vector at a belief is found with a single pass over the matrix.
+ *
+ */
+public class AlphaVectorPolicy {
+	/** The number of alpha vectors */
+	final int nVector;
+	/** The number of states, i.e. the length of each vector */
+	final int nState;
+	/** The alpha vectors, vector p occupying index p * nState to (p + 1) * nState (exclusive) */
+	final double [] alpha;
+	/** The action to take corresponding to each vector */
+	final int [] action;
+
+	/**
+	 * Create a policy from its alpha vectors
+	 * @param nState	the length of each vector
+	 * @param alpha		the row-major matrix of the alpha vectors, of length nVector * nState
+	 * @param action	the action of each vector
+	 */
+	public AlphaVectorPolicy(int nState, double [] alpha, int [] action) {
+		if (alpha.length != action.length * nState) throw new IllegalArgumentException("The policy has " + action.length + " actions but " + alpha.length + " values for vectors of length " + nState);
+		this.nVector = action.length;
+		this.nState = nState;
+		this.alpha = alpha;
+		this.action = action;
+	}
+
+	/**
+	 * Find the vector maximizing the expected reward at a belief. When several vectors reach the maximum, the first one is kept.
+	 * The products of 4 consecutive vectors are accumulated together, each of them in state order.
+	 * @param belief	the belief on the system's state
+	 * @return the index of the best vector
+	 */
+	int bestVector(double [] belief) {
+		int best = 0;
+		double maxReward = dot(belief, 0);
+		int p = 1;
+		for (; p + 4 <= nVector; p += 4) {
+			int offset = p * nState;
+			double reward0 = 0, reward1 = 0, reward2 = 0, reward3 = 0;
+			for (int s = 0; s < nState; s++) {
+				double b = belief[s];
+				reward0 += b * alpha[offset + s];
+				reward1 += b * alpha[offset + nState + s];
+				reward2 += b * alpha[offset + 2 * nState + s];
+				reward3 += b * alpha[offset + 3 * nState + s];
+			}
+			if (maxReward < reward0) { maxReward = reward0; best = p; }
+			if (maxReward < reward1) { maxReward = reward1; best = p + 1; }
+			if (maxReward < reward2) { maxReward = reward2; best = p + 2; }
+			if (maxReward < reward3) { maxReward = reward3; best = p + 3; }
+		}
+		for (; p < nVector; p++) {
+			double reward = dot(belief, p);
+			if (maxReward < reward) {
+				maxReward = reward;
+				best = p;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find the best vector at a batch of beliefs, vector by vector, so that each vector is read once for the whole batch.
+	 * The rewards are accumulated in state order, so the vectors found are the ones of {@link #bestVector(double[])}.
+	 * @param beliefs	the array holding the beliefs
+	 * @param offset	the index of the first entry of each belief in beliefs
+	 * @param n			the number of beliefs
+	 * @param best		the array receiving the index of the best vector at each belief
+	 * @param maxReward	a buffer of at least n rewards
+	 */
+	void bestVectors(double [] beliefs, int [] offset, int n, int [] best, double [] maxReward) {
+		for (int i = 0; i < n; i++) {
+			double reward = 0;
+			for (int s = 0; s < nState; s++) reward += beliefs[offset[i] + s] * alpha[s];
+			maxReward[i] = reward;
+			best[i] = 0;
+		}
+		for (int p = 1; p < nVector; p++) {
+			int offsetVector = p * nState;
+			for (int i = 0; i < n; i++) {
+				int offsetBelief = offset[i];
+				double reward = 0;
+				for (int s = 0; s < nState; s++) reward += beliefs[offsetBelief + s] * alpha[offsetVector + s];
+				if (maxReward[i] < reward) {
+					maxReward[i] = reward;
+					best[i] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the action maximizing the expected reward at a belief
+	 * @param belief	the belief on the system's state
+	 * @return the action of the best vector
+	 * @see #bestVector(double[])
+	 */
+	int bestAction(double [] belief) {
+		return action[bestVector(belief)];
+	}
+
+	/**
+	 * The expected reward of a vector at a belief
+	 * @param belief	the belief on the system's state
+	 * @param p			the index of the vector
+	 * @return the dot product of the belief and the p-th vector
+	 */
+	double dot(double [] belief, int p) {
+		int offset = p * nState;
+		double reward = 0;
+		for (int s = 0; s < nState; s++) reward += belief[s] * alpha[offset + s];
+		return reward;
+	}
+}
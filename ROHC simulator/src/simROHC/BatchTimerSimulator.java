@@ -0,0 +1,198 @@
+package simROHC;
+
+/**
+ *
+ * Simulates many sessions of the U-mode compressor ({@link CompressorTimer}) in lockstep.
+ * The state of the sessions (channel, random stream, timer, current packet type, decompressor's state and w) is held in parallel primitive arrays,
+ * and each packet is simulated by loops over all the sessions that the JIT can unroll and vectorize.
+ *
+ * The sessions are seeded as in {@link SessionRunner} and their summaries are merged by blocks of {@link MonteCarloEngine#RUNS_PER_BLOCK} runs,
+ * so the result is bit-identical to the U-mode summary of {@link MonteCarloEngine} with the same seed.
+ *
+ */
+public class BatchTimerSimulator {
+	/** The decompressor's states, as in {@link Decompressor.State} */
+	static final int NC = 0, SC = 1, FC = 2;
+
+	final SimulationParameters params;
+	/** The seed of the campaign */
+	final long seed;
+	/** The number of sessions simulated in lockstep, a multiple of {@link MonteCarloEngine#RUNS_PER_BLOCK} */
+	final int nSession;
+
+	final int lenIR;
+	final int lenFO;
+	final int lenSO;
+
+	/** The state of the channel's random stream of each session */
+	final long [] s0;
+	final long [] s1;
+	/** Whether the channel of each session is good */
+	final boolean [] isGood;
+	/** The timer and the current packet type of each compressor */
+	final int [] timer;
+	final int [] typeCurrent;
+	/** The packet transmitted by each compressor at the current step */
+	final int [] typePacket;
+	/** The state and w of each decompressor */
+	final int [] state;
+	final int [] w;
+	/** The cumulative number of bytes transmitted and of payload bytes received in each session */
+	final int [] nByteTransmitted;
+	final int [] nByteReceived;
+
+	/**
+	 * Create a batch simulator
+	 * @param params	the parameters, the POMDP ones are ignored
+	 * @param seed		the seed of the campaign
+	 * @param nSession	the number of sessions simulated in lockstep, rounded up to a multiple of {@link MonteCarloEngine#RUNS_PER_BLOCK}
+	 */
+	public BatchTimerSimulator(SimulationParameters params, long seed, int nSession) {
+		this.params = params;
+		this.seed = seed;
+		this.nSession = MonteCarloEngine.numBlocks(nSession) * MonteCarloEngine.RUNS_PER_BLOCK;
+
+		lenIR = params.lenHeaderIR + params.lenPayload;
+		lenFO = params.lenHeaderFO + params.lenPayload;
+		lenSO = params.lenHeaderSO + params.lenPayload;
+
+		s0 = new long [this.nSession];
+		s1 = new long [this.nSession];
+		isGood = new boolean [this.nSession];
+		timer = new int [this.nSession];
+		typeCurrent = new int [this.nSession];
+		typePacket = new int [this.nSession];
+		state = new int [this.nSession];
+		w = new int [this.nSession];
+		nByteTransmitted = new int [this.nSession];
+		nByteReceived = new int [this.nSession];
+	}
+
+	/**
+	 * Simulate nRun sessions of the U-mode compressor
+	 * @param nRun	number of Monte-Carlo runs
+	 * @return the normalized summary
+	 */
+	public SummarySession run(int nRun) {
+		Channel channel = new Channel(params.eps, params.lB); // Only used for its transition probabilities
+		double pGB = channel.pGB;
+		double pBG = channel.pBG;
+
+		SummarySession [][] summaryBlocks = new SummarySession [MonteCarloEngine.numBlocks(nRun)][];
+		Xoroshiro128Plus rng = new Xoroshiro128Plus(0);
+		for (int iRunStart = 0; iRunStart < nRun; iRunStart += nSession) {
+			int nActive = Math.min(nSession, nRun - iRunStart);
+			int iBlockStart = iRunStart / MonteCarloEngine.RUNS_PER_BLOCK;
+			int nBlock = MonteCarloEngine.numBlocks(nActive);
+			SummarySession [] summaries = new SummarySession [nBlock];
+			for (int b = 0; b < nBlock; b++) {
+				summaries[b] = new SummarySession(params.N);
+				summaryBlocks[iBlockStart + b] = new SummarySession [] {null, summaries[b]};
+			}
+
+			// Reset the sessions as SessionRunner#runSession does
+			for (int s = 0; s < nActive; s++) {
+				summaries[s / MonteCarloEngine.RUNS_PER_BLOCK].nSession++;
+				rng.setSeed(Xoroshiro128Plus.runSeed(seed, iRunStart + s));
+				isGood[s] = !(rng.nextDouble() < pGB / (pGB + pBG));
+				s0[s] = rng.s0;
+				s1[s] = rng.s1;
+				timer[s] = 0;
+				typeCurrent[s] = 0;
+				state[s] = NC;
+				w[s] = 0;
+				nByteTransmitted[s] = 0;
+				nByteReceived[s] = 0;
+			}
+
+			for (int n = 0; n < params.N; n++) {
+				transmit(nActive);
+				receive(nActive, summaries, n);
+				nextChannel(nActive, pGB, pBG);
+			}
+		}
+
+		SummarySession summaryCum = new SummarySession(params.N);
+		for (int iBlock = 0; iBlock < summaryBlocks.length; iBlock++) summaryCum.sum(summaryBlocks[iBlock][1]);
+		summaryCum.normalize(nRun);
+		return summaryCum;
+	}
+
+	/**
+	 * {@link CompressorTimer#transmit()} for all the sessions
+	 */
+	void transmit(int nActive) {
+		int timeOutIR2SO = params.timeOutIR2SO;
+		int timeOutSO2FO = params.timeOutSO2FO;
+		int timeOutFO2SO = params.timeOutFO2SO;
+		for (int s = 0; s < nActive; s++) {
+			int type = typeCurrent[s];
+			int t = timer[s] + 1;
+			int timeOut = (type == 0 ? timeOutIR2SO : (type == 1 ? timeOutSO2FO : timeOutFO2SO));
+			boolean isExpired = t >= timeOut;
+			typeCurrent[s] = (isExpired ? (type == 1 ? 1 : 2) : type);
+			timer[s] = (isExpired ? 0 : t);
+			typePacket[s] = type;
+		}
+	}
+
+	/**
+	 * {@link Decompressor#next(boolean, int)} and {@link SessionAccumulator} for all the sessions
+	 */
+	void receive(int nActive, SummarySession [] summaries, int n) {
+		int W = params.W;
+		int lenPayload = params.lenPayload;
+		for (int s = 0; s < nActive; s++) {
+			int type = typePacket[s];
+			int st = state[s];
+			int ww = w[s];
+			boolean good = isGood[s];
+
+			nByteTransmitted[s] += (type == 0 ? lenIR : (type == 1 ? lenFO : lenSO));
+			boolean isReceived = good && (st == FC || (st == SC && type <= 1) || type == 0);
+			nByteReceived[s] += (isReceived ? lenPayload : 0);
+
+			// Bad channel: one more packet lost in FC, SC once W packets are lost
+			int wBad = ww + (st == FC ? 1 : 0);
+			int stBad = (wBad >= W ? SC : st);
+			// Good channel: IR always reaches FC, FO reaches FC from SC or FC, SO resets w in FC
+			boolean toFC = type == 0 || (type == 1 && st != NC);
+			int stGood = (toFC ? FC : st);
+			int wGood = (toFC || (type == 2 && st == FC) ? 0 : ww);
+
+			state[s] = (good ? stGood : stBad);
+			w[s] = (good ? wGood : wBad);
+		}
+
+		// The reduction follows the run order, as the sequential engine does
+		for (int s = 0; s < nActive; s++) {
+			SummarySession summary = summaries[s / MonteCarloEngine.RUNS_PER_BLOCK];
+			double inverseSession = 1.0 / (s % MonteCarloEngine.RUNS_PER_BLOCK + 1);
+			switch (typePacket[s]) {
+				case 0: summary.nIR++; break;
+				case 1: summary.nFO++; break;
+				default: summary.nSO++;
+			}
+			if (isGood[s]) summary.nG++;
+			else summary.nB++;
+			summary.weight[n]++;
+			summary.addEfficiency(n, ((double) nByteReceived[s]) / nByteTransmitted[s], inverseSession);
+		}
+	}
+
+	/**
+	 * {@link Channel#next()} for all the sessions, with the xoroshiro128+ generators inlined
+	 */
+	void nextChannel(int nActive, double pGB, double pBG) {
+		for (int s = 0; s < nActive; s++) {
+			long t0 = s0[s];
+			long t1 = s1[s];
+			double tmp = ((t0 + t1) >>> 11) * 0x1.0p-53;
+			t1 ^= t0;
+			s0[s] = Long.rotateLeft(t0, 24) ^ t1 ^ (t1 << 16);
+			s1[s] = Long.rotateLeft(t1, 37);
+
+			isGood[s] = (isGood[s] ? tmp > pGB : tmp < pBG);
+		}
+	}
+}
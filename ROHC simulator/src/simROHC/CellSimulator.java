@@ -0,0 +1,351 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Simulates a cell carrying many ROHC flows at once, each with its own Gilbert-Elliott channel, POMDP compressor and U-mode compressor (sharing the channel, as in {@link SessionRunner}).
+ * The state of each flow is held in primitive arrays indexed by flow: the random streams, the channel state, the belief of the POMDP compressor,
+ * the timer of the U-mode compressor and the state codes of the two decompressors. No object is created per flow, so the memory per flow is fixed (see {@link #bytesPerFlow(int)}).
+ *
+ * The flows are cut into shards simulated in parallel, and only the aggregates of the cell are kept, one per thread, so their memory does not depend on the number of flows.
+ * Flow i is seeded as run i of {@link MonteCarloEngine} with the same seed, so its packets are the same as the ones of that run.
+ *
+ */
+public class CellSimulator {
+	/** The number of flows in a shard, the unit of work handed to a thread */
+	static final int FLOWS_PER_SHARD = 1024;
+	/** The compressors simulated for each flow */
+	static final int POMDP = 0, TIMER = 1;
+
+	/**
+	 * The aggregates of the cell over a number of steps (one packet per flow and per step)
+	 */
+	public static class CellSummary {
+		/** The number of IR, FO and SO packets of each compressor */
+		final long [] nIR = new long [2];
+		final long [] nFO = new long [2];
+		final long [] nSO = new long [2];
+		/** The number of bytes transmitted, of header bytes transmitted and of payload bytes received by each compressor */
+		final long [] nByteTransmitted = new long [2];
+		final long [] nByteHeader = new long [2];
+		final long [] nByteReceived = new long [2];
+		/** The number of bytes transmitted by each compressor at each step, over the whole cell */
+		final long [][] nByteTransmittedStep;
+		/** The number of packets sent on a good and on a bad channel */
+		long nG;
+		long nB;
+
+		CellSummary(int nStep) {
+			nByteTransmittedStep = new long [2][nStep];
+		}
+
+		void sum(CellSummary summary) {
+			for (int c = 0; c < 2; c++) {
+				nIR[c] += summary.nIR[c];
+				nFO[c] += summary.nFO[c];
+				nSO[c] += summary.nSO[c];
+				nByteTransmitted[c] += summary.nByteTransmitted[c];
+				nByteHeader[c] += summary.nByteHeader[c];
+				nByteReceived[c] += summary.nByteReceived[c];
+				for (int n = 0; n < nByteTransmittedStep[c].length; n++) nByteTransmittedStep[c][n] += summary.nByteTransmittedStep[c][n];
+			}
+			nG += summary.nG;
+			nB += summary.nB;
+		}
+
+		/**
+		 * @param compressor	{@link CellSimulator#POMDP} or {@link CellSimulator#TIMER}
+		 * @return the fraction of the bytes transmitted that are headers
+		 */
+		public double headerOverhead(int compressor) {
+			return ((double) nByteHeader[compressor]) / nByteTransmitted[compressor];
+		}
+
+		/**
+		 * @param compressor	{@link CellSimulator#POMDP} or {@link CellSimulator#TIMER}
+		 * @return the payload bytes received per byte transmitted, over the whole cell
+		 */
+		public double efficiency(int compressor) {
+			return ((double) nByteReceived[compressor]) / nByteTransmitted[compressor];
+		}
+
+		public String toString() {
+			StringBuilder output = new StringBuilder();
+			output.append("***** Summary of the cell *****\n");
+			output.append("Channel states: Good " + nG + ", Bad " + nB + "\n");
+			String [] names = {"POMDP", "U-mode"};
+			for (int c = 0; c < 2; c++) {
+				output.append(names[c] + ": IR " + nIR[c] + ", FO " + nFO[c] + ", SO " + nSO[c]);
+				output.append(", header overhead " + headerOverhead(c) + ", efficiency " + efficiency(c) + "\n");
+			}
+			return new String(output);
+		}
+	}
+
+	final SimulationParameters params;
+	/** The number of flows in the cell */
+	final int nFlow;
+	/** The number of threads simulating the shards */
+	final int nThread;
+	/** The number of states of the POMDP model, 4 + W */
+	final int nState;
+
+	final int [] lenPacket;
+	final int [] lenHeader;
+
+	/** The POMDP model and policy shared by all the flows, only used through its stateless methods */
+	final CompressorPOMDP model;
+	/** The transition probabilities of the channels and the error probabilities of the estimators */
+	final double pGB, pBG, pFA, pMD;
+	/** The next decompressor's state code, at index (code * 2 + channel) * 3 + packet type */
+	final int [] nextStateDecompressor;
+
+	/** The state of the random streams of the channel and of the channel estimator of each flow */
+	final long [] s0Channel;
+	final long [] s1Channel;
+	final long [] s0Estimator;
+	final long [] s1Estimator;
+	/** Whether the channel of each flow is good */
+	final boolean [] isGood;
+	/** The belief of the POMDP compressor of each flow, flow f occupying index f * nState to (f + 1) * nState (exclusive) */
+	final double [] belief;
+	/** The timer and the current packet type of the U-mode compressor of each flow */
+	final int [] timer;
+	final byte [] typeCurrent;
+	/** The state code of the decompressor of each flow and compressor, as in {@link Decompressor#getStateCode()} */
+	final int [] statePOMDP;
+	final int [] stateTimer;
+
+	/**
+	 * Create a cell whose flows all follow the same parameters, and reset it
+	 * @param params	the parameters of each flow, N is ignored
+	 * @param nFlow		the number of flows
+	 * @param nThread	the number of threads simulating the flows
+	 * @param seed		the seed of the cell
+	 */
+	public CellSimulator(SimulationParameters params, int nFlow, int nThread, long seed) {
+		this.params = params;
+		this.nFlow = nFlow;
+		this.nThread = nThread;
+		this.nState = 4 + params.W;
+
+		lenHeader = new int [] {params.lenHeaderIR, params.lenHeaderFO, params.lenHeaderSO};
+		lenPacket = new int [3];
+		for (int a = 0; a < 3; a++) lenPacket[a] = lenHeader[a] + params.lenPayload;
+
+		Channel channel = new Channel(params.eps, params.lB, new Xoroshiro128Plus(seed));
+		pGB = channel.pGB;
+		pBG = channel.pBG;
+		pFA = params.pFA;
+		pMD = params.pMD;
+		model = new CompressorPOMDP(params.W, pBG, pGB, new CompressorPOMDP.ChannelEstimator(channel, pFA, pMD), params.filename);
+		model.setLogEnabled(false);
+
+		int [][][] table = Decompressor.transitionTable(params.W);
+		nextStateDecompressor = new int [table.length * 2 * 3];
+		for (int d = 0; d < table.length; d++) {
+			for (int g = 0; g < 2; g++) {
+				for (int a = 0; a < 3; a++) nextStateDecompressor[(d * 2 + g) * 3 + a] = table[d][g][a];
+			}
+		}
+
+		s0Channel = new long [nFlow];
+		s1Channel = new long [nFlow];
+		s0Estimator = new long [nFlow];
+		s1Estimator = new long [nFlow];
+		isGood = new boolean [nFlow];
+		belief = new double [nFlow * nState];
+		timer = new int [nFlow];
+		typeCurrent = new byte [nFlow];
+		statePOMDP = new int [nFlow];
+		stateTimer = new int [nFlow];
+		reset(seed);
+	}
+
+	/**
+	 * The memory held for each flow
+	 * @param W	the WLSB capacity
+	 * @return the number of bytes of the per-flow arrays for one flow
+	 */
+	public static int bytesPerFlow(int W) {
+		return 4 * 8 + 1 + 8 * (4 + W) + 4 + 1 + 4 + 4;
+	}
+
+	/**
+	 * Start all the flows again, as {@link SessionRunner#runSession(long, SummarySession, SummarySession)} starts a run
+	 * @param seed	the seed of the cell
+	 */
+	public void reset(long seed) {
+		Xoroshiro128Plus rng = new Xoroshiro128Plus(seed);
+		model.reset();
+		double [] beliefInit = model.belief.data;
+		for (int f = 0; f < nFlow; f++) {
+			rng.setSeed(Xoroshiro128Plus.runSeed(seed, f));
+			long s0 = rng.s0, s1 = rng.s1;
+			rng.jump();
+			s0Estimator[f] = rng.s0;
+			s1Estimator[f] = rng.s1;
+			rng.s0 = s0;
+			rng.s1 = s1;
+			isGood[f] = !(rng.nextDouble() < pGB / (pGB + pBG)); // As Channel#reset()
+			s0Channel[f] = rng.s0;
+			s1Channel[f] = rng.s1;
+
+			System.arraycopy(beliefInit, 0, belief, f * nState, nState);
+			timer[f] = 0;
+			typeCurrent[f] = 0;
+			statePOMDP[f] = 0;
+			stateTimer[f] = 0;
+		}
+	}
+
+	/**
+	 * Advance all the flows of the cell by nStep packets
+	 * @param nStep	the number of packets of each flow
+	 * @return the aggregates of the cell over these steps
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a thread failed to simulate its shards
+	 */
+	public CellSummary run(final int nStep) throws InterruptedException, ExecutionException {
+		final int nShard = (nFlow + FLOWS_PER_SHARD - 1) / FLOWS_PER_SHARD;
+		final AtomicInteger nextShard = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(nThread);
+		try {
+			// One summary per thread rather than per shard, so the memory of the aggregates does not grow with the number of flows
+			List<Future<CellSummary>> futures = new ArrayList<Future<CellSummary>> (nThread);
+			for (int t = 0; t < nThread; t++) {
+				futures.add(executor.submit(new Callable<CellSummary>() {
+					public CellSummary call() {
+						CellSummary summary = new CellSummary(nStep);
+						int shard;
+						while ((shard = nextShard.getAndIncrement()) < nShard) {
+							runShard(shard * FLOWS_PER_SHARD, Math.min(nFlow, (shard + 1) * FLOWS_PER_SHARD), nStep, summary);
+						}
+						return summary;
+					}
+				}));
+			}
+			CellSummary summary = new CellSummary(nStep);
+			for (Future<CellSummary> future : futures) summary.sum(future.get()); // Integer counters, the same whatever the shards of each thread
+			return summary;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Advance the flows [start, end) by nStep packets, one flow after the other
+	 * @param summary	the aggregates to add these flows to
+	 */
+	void runShard(int start, int end, int nStep, CellSummary summary) {
+		Xoroshiro128Plus rngChannel = new Xoroshiro128Plus(0);
+		Xoroshiro128Plus rngEstimator = new Xoroshiro128Plus(0);
+		double [] beliefCurrent = new double [nState];
+		double [] beliefNext = new double [nState];
+		AlphaVectorPolicy policy = model.policy;
+		int timeOutIR2SO = params.timeOutIR2SO;
+		int timeOutSO2FO = params.timeOutSO2FO;
+		int timeOutFO2SO = params.timeOutFO2SO;
+		int lenPayload = params.lenPayload;
+
+		for (int f = start; f < end; f++) {
+			rngChannel.s0 = s0Channel[f];
+			rngChannel.s1 = s1Channel[f];
+			rngEstimator.s0 = s0Estimator[f];
+			rngEstimator.s1 = s1Estimator[f];
+			boolean good = isGood[f];
+			System.arraycopy(belief, f * nState, beliefCurrent, 0, nState);
+			int t = timer[f];
+			int type = typeCurrent[f];
+			int dPOMDP = statePOMDP[f];
+			int dTimer = stateTimer[f];
+
+			for (int n = 0; n < nStep; n++) {
+				int g = (good ? 1 : 0);
+
+				// The POMDP compressor, as CompressorPOMDP#transmit()
+				int aPOMDP = policy.bestAction(beliefCurrent);
+				double u = rngEstimator.nextDouble();
+				boolean obs = (good ? u > pFA : u < pMD);
+				model.updateBelief(beliefCurrent, aPOMDP, obs, beliefNext);
+				double [] tmp = beliefCurrent;
+				beliefCurrent = beliefNext;
+				beliefNext = tmp;
+				account(summary, POMDP, n, aPOMDP, g, dPOMDP, lenPayload);
+				dPOMDP = nextStateDecompressor[(dPOMDP * 2 + g) * 3 + aPOMDP];
+
+				// The U-mode compressor, as CompressorTimer#transmit()
+				int aTimer = type;
+				t++;
+				int timeOut = (type == 0 ? timeOutIR2SO : (type == 1 ? timeOutSO2FO : timeOutFO2SO));
+				if (t >= timeOut) {
+					type = (type == 1 ? 1 : 2);
+					t = 0;
+				}
+				account(summary, TIMER, n, aTimer, g, dTimer, lenPayload);
+				dTimer = nextStateDecompressor[(dTimer * 2 + g) * 3 + aTimer];
+
+				if (good) summary.nG++;
+				else summary.nB++;
+
+				// The channel, as Channel#next()
+				u = rngChannel.nextDouble();
+				good = (good ? u > pGB : u < pBG);
+			}
+
+			s0Channel[f] = rngChannel.s0;
+			s1Channel[f] = rngChannel.s1;
+			s0Estimator[f] = rngEstimator.s0;
+			s1Estimator[f] = rngEstimator.s1;
+			isGood[f] = good;
+			System.arraycopy(beliefCurrent, 0, belief, f * nState, nState);
+			timer[f] = t;
+			typeCurrent[f] = (byte) type;
+			statePOMDP[f] = dPOMDP;
+			stateTimer[f] = dTimer;
+		}
+	}
+
+	/**
+	 * Account for one packet of a flow, as {@link SessionAccumulator} does
+	 */
+	void account(CellSummary summary, int compressor, int n, int typePacket, int g, int stateDecompressor, int lenPayload) {
+		switch (typePacket) {
+			case 0: summary.nIR[compressor]++; break;
+			case 1: summary.nFO[compressor]++; break;
+			default: summary.nSO[compressor]++;
+		}
+		summary.nByteTransmitted[compressor] += lenPacket[typePacket];
+		summary.nByteHeader[compressor] += lenHeader[typePacket];
+		summary.nByteTransmittedStep[compressor][n] += lenPacket[typePacket];
+		if (MarkovEvaluator.isReceived(stateDecompressor, g, typePacket)) summary.nByteReceived[compressor] += lenPayload;
+	}
+
+	/**
+	 * Simulate a cell of 100000 flows
+	 * @param args	the number of flows and the number of packets per flow, 100000 and 1000 by default
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		int nFlow = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		int nStep = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, "out.policy", nStep);
+		int nThread = Runtime.getRuntime().availableProcessors();
+
+		CellSimulator cell = new CellSimulator(params, nFlow, nThread, 20151231L);
+		long timeStart = System.nanoTime();
+		CellSummary summary = cell.run(nStep);
+		double time = (System.nanoTime() - timeStart) / 1e9;
+		System.out.print(summary);
+		System.out.println(nFlow + " flows x " + nStep + " packets in " + time + " s (" + (long) (nFlow * (double) nStep / time) + " packets/s), "
+				+ bytesPerFlow(params.W) + " bytes per flow");
+	}
+}
@@ -17,27 +17,64 @@ public class Channel {
 	boolean isGood;
 	/** Record the channel state history */
 	List<Boolean> log;
+	/** Whether the history is recorded in {@link #log} */
+	boolean logEnabled = true;
+	/** The random stream driving the channel state */
+	final RandomStream rng;
+	/** The transition probabilities the channel states are drawn with, different from pGB and pBG under importance sampling */
+	double qGB, qBG;
+	/** The factor applied to the likelihood ratio for each transition: good to good, good to bad, bad to good and bad to bad */
+	double ratioGG = 1, ratioGB = 1, ratioBG = 1, ratioBB = 1;
+	/** The likelihood ratio of the channel states drawn since the last reset, under pGB and pBG versus under qGB and qBG; always 1 without importance sampling */
+	double likelihoodRatio;
+	/** The number of packets in the current burst of good or bad states, counted only for {@link Metrics}; the first burst starts at the reset */
+	long lenBurst;
 	/**
 	 * Create a new channel with pBG and pGB, initialize the channel state using the steady state of the G-E model.
 	 * @param pBG
 	 * @param pGB
+	 * @param rng the random stream driving the channel state
 	 */
-	public Channel(double pBG, double pGB) {
+	public Channel(double pBG, double pGB, RandomStream rng) {
 		this.pBG = pBG;
 		this.pGB = pGB;
+		this.rng = rng;
+		this.qGB = pGB;
+		this.qBG = pBG;
 		
 		log = new ArrayList<Boolean> ();
 		reset();
 	}
 	
+	/**
+	 * Create a new channel with pBG and pGB, driven by a random stream seeded from the system clock.
+	 * @param pBG
+	 * @param pGB
+	 * @see Channel#Channel(double, double, RandomStream)
+	 */
+	public Channel(double pBG, double pGB) {
+		this(pBG, pGB, new Xoroshiro128Plus(System.nanoTime()));
+	}
+	
 	/**
 	 * Create a new channel using the alternative definition of G-E model
 	 * @param eps the average erasure probability
 	 * @param lB the average duration of a sequence of bad states
-	 * @see Channel#Channel(double, double)
+	 * @param rng the random stream driving the channel state
+	 * @see Channel#Channel(double, double, RandomStream)
+	 */
+	public Channel(double eps, int lB, RandomStream rng) {
+		this(1 / ((double) lB), 1 / ((double) lB) / (1 / eps - 1), rng);
+	}
+	
+	/**
+	 * Create a new channel using the alternative definition of G-E model, driven by a random stream seeded from the system clock.
+	 * @param eps the average erasure probability
+	 * @param lB the average duration of a sequence of bad states
+	 * @see Channel#Channel(double, int, RandomStream)
 	 */
 	public Channel(double eps, int lB) {
-		this(1 / ((double) lB), 1 / ((double) lB) / (1 / eps - 1));
+		this(eps, lB, new Xoroshiro128Plus(System.nanoTime()));
 	}
 	
 	/**
@@ -48,23 +85,76 @@ public class Channel {
 		return isGood;
 	}
 	
+	/**
+	 * Draw the channel states with biased transition probabilities, e.g. a larger qGB and a smaller qBG to make long bursts of bad states frequent.
+	 * The likelihood ratio of the states drawn is tracked in {@link #likelihoodRatio}, so that the statistics weighted by it remain unbiased.
+	 * The initial state is still drawn from the steady state of pGB and pBG.
+	 * @param qGB the probability that channel transit from good to bad, in (0, 1)
+	 * @param qBG the probability that channel transit from bad to good, in (0, 1)
+	 */
+	public void setImportanceSampling(double qGB, double qBG) {
+		if (!(qGB > 0 && qGB < 1 && qBG > 0 && qBG < 1)) throw new IllegalArgumentException("The biased transition probabilities must be in (0, 1), got qGB = " + qGB + ", qBG = " + qBG);
+		this.qGB = qGB;
+		this.qBG = qBG;
+		ratioGG = (1 - pGB) / (1 - qGB);
+		ratioGB = pGB / qGB;
+		ratioBG = pBG / qBG;
+		ratioBB = (1 - pBG) / (1 - qBG);
+	}
+	
+	/**
+	 * Get the likelihood ratio of the channel states drawn since the last reset
+	 * @return the weight of the current session, 1 without importance sampling
+	 */
+	public double getLikelihoodRatio() {
+		return likelihoodRatio;
+	}
+	
 	/**
 	 * Update the channel state.
 	 */
 	public void next() {
-		double tmp = Math.random();
+		boolean isGoodBefore = isGood;
+		double tmp = rng.nextDouble();
 		if (isGood) {
-			isGood = tmp > pGB;
+			isGood = tmp > qGB;
+			likelihoodRatio *= (isGood ? ratioGG : ratioGB);
+		} else {
+			isGood = tmp < qBG;
+			likelihoodRatio *= (isGood ? ratioBG : ratioBB);
+		}
+		if (Metrics.ENABLED) countBurst(isGoodBefore);
+		if (logEnabled) log.add(isGood);
+	}
+	
+	/**
+	 * Count the current state in its burst, recording the burst that just ended, if any, in {@link Metrics}
+	 * @param isGoodBefore the state before the update
+	 */
+	void countBurst(boolean isGoodBefore) {
+		if (isGood == isGoodBefore) {
+			lenBurst++;
 		} else {
-			isGood = tmp < pBG;
+			Metrics.recordBurst(isGoodBefore, lenBurst);
+			lenBurst = 1;
 		}
-		log.add(isGood);
+	}
+	
+	/**
+	 * Enable or disable the recording of the channel state history
+	 * @param logEnabled
+	 */
+	public void setLogEnabled(boolean logEnabled) {
+		this.logEnabled = logEnabled;
+		if (!logEnabled) log.clear();
 	}
 	
 	public void reset() {
-		double tmp = Math.random();
+		double tmp = rng.nextDouble();
 		isGood = (tmp < pGB / (pGB + pBG) ? false : true); 
+		likelihoodRatio = 1;
+		lenBurst = 1;
 		log.clear();
-		log.add(isGood);
+		if (logEnabled) log.add(isGood);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * The summaries of the blocks of one configuration merged so far, in block order, optionally saved to a checkpoint file from which an interrupted campaign resumes.
+ *
+ * The random streams of each run only depend on the campaign seed and the index of the run, so the number of blocks merged is the position of the streams:
+ * a campaign resumed from a checkpoint simulates the blocks after it and merges them in the same order, and gives the same result as an uninterrupted one.
+ * The blocks completed while an earlier block was still running are not merged yet, and are simulated again after a crash.
+ *
+ * The file holds the magic number {@link #MAGIC}, the fingerprint of the configuration, the number of runs of the current wave, the number of blocks merged,
+ * whether the result was delivered, and the (not normalized) summaries of the POMDP and the U-mode compressors. It is written under a temporary name, then renamed, so that a crash
+ * while writing leaves the previous checkpoint.
+ *
+ */
+class Checkpoint {
+	/** The magic number at the beginning of a checkpoint file ("ROHCCKP2") */
+	static final long MAGIC = 0x524F4843434B5032L;
+
+	/** The checkpoint file, null to keep the summaries in memory only */
+	final File file;
+	/** The description of the configuration and of the campaign, a checkpoint only resumes the campaign that wrote it */
+	final String fingerprint;
+	/** The minimal time between two writes, in ms */
+	final long intervalMillis;
+	/** The time of the last write, in ms */
+	long timeLastWrite;
+
+	/** The number of runs of the wave being simulated, 0 before the first one */
+	int nRunTarget;
+	/** The number of blocks merged into {@link #summaryCum} */
+	int nBlockMerged;
+	/** Whether the result was delivered, e.g. appended to the results file of a {@link ParameterSweep}, which all the blocks merged do not imply */
+	boolean isDelivered;
+	/** The sums of the summaries of the POMDP and the U-mode compressors over the blocks merged */
+	final SummarySession [] summaryCum;
+	/** The summaries of the blocks completed but not merged yet, by block index */
+	final Map<Integer, SummarySession []> pending = new HashMap<Integer, SummarySession []> ();
+
+	Checkpoint(File file, String fingerprint, int nPacket, long intervalMillis) {
+		this.file = file;
+		this.fingerprint = fingerprint;
+		this.intervalMillis = intervalMillis;
+		summaryCum = new SummarySession [] {new SummarySession(nPacket), new SummarySession(nPacket)};
+		timeLastWrite = System.currentTimeMillis();
+	}
+
+	/**
+	 * Resume from a checkpoint file, or start from scratch if it does not exist
+	 * @param file				the checkpoint file, or null to keep the summaries in memory only
+	 * @param fingerprint		the description of the configuration and of the campaign
+	 * @param nPacket			the number of packets of each session
+	 * @param intervalMillis	the minimal time between two writes, in ms
+	 * @return the checkpoint
+	 * @throws IOException if the file cannot be read, is corrupted or was written by another campaign
+	 */
+	static Checkpoint open(File file, String fingerprint, int nPacket, long intervalMillis) throws IOException {
+		Checkpoint checkpoint = new Checkpoint(file, fingerprint, nPacket, intervalMillis);
+		if (file != null && file.isFile()) checkpoint.read(nPacket);
+		return checkpoint;
+	}
+
+	void read(int nPacket) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (input.readLong() != MAGIC) throw new IOException(file + " is not a checkpoint file");
+			String fingerprintFile = input.readUTF();
+			if (!fingerprintFile.equals(fingerprint)) throw new IOException("The checkpoint " + file + " was written by another campaign: " + fingerprintFile);
+			nRunTarget = input.readInt();
+			nBlockMerged = input.readInt();
+			isDelivered = input.readBoolean();
+			for (int i = 0; i < summaryCum.length; i++) {
+				summaryCum[i] = SummarySession.readFrom(input, nPacket);
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Write the checkpoint file now
+	 * @throws IOException
+	 */
+	synchronized void write() throws IOException {
+		File fileTmp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(fileTmp);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			output.writeLong(MAGIC);
+			output.writeUTF(fingerprint);
+			output.writeInt(nRunTarget);
+			output.writeInt(nBlockMerged);
+			output.writeBoolean(isDelivered);
+			for (SummarySession summary : summaryCum) summary.writeTo(output);
+			output.flush();
+			stream.getFD().sync(); // On disk before the rename
+		} finally {
+			stream.close();
+		}
+		try {
+			Files.move(fileTmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(fileTmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		timeLastWrite = System.currentTimeMillis();
+	}
+
+	/**
+	 * Merge the summaries of a block, and those of the following blocks completed before it, then write the checkpoint file if the interval has elapsed.
+	 * A failed write is reported and the simulation goes on, the next write retrying.
+	 * @param iBlock	the index of the block
+	 * @param summaries	the (not normalized) summaries of the POMDP and the U-mode compressors over the block
+	 */
+	synchronized void complete(int iBlock, SummarySession [] summaries) {
+		pending.put(iBlock, summaries);
+		SummarySession [] next;
+		while ((next = pending.remove(nBlockMerged)) != null) {
+			summaryCum[0].sum(next[0]);
+			summaryCum[1].sum(next[1]);
+			nBlockMerged++;
+		}
+		if (file != null && System.currentTimeMillis() - timeLastWrite >= intervalMillis) {
+			try {
+				write();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Record that the result was delivered, and write the checkpoint file now
+	 * @throws IOException
+	 */
+	synchronized void setDelivered() throws IOException {
+		isDelivered = true;
+		if (file != null) write();
+	}
+
+	/**
+	 * @return the number of runs merged, from which the simulation resumes
+	 */
+	synchronized int getNumRunsMerged() {
+		return nBlockMerged * MonteCarloEngine.RUNS_PER_BLOCK;
+	}
+
+	/**
+	 * @param nRun	the number of runs merged, the last block may be shorter than {@link MonteCarloEngine#RUNS_PER_BLOCK}
+	 * @return normalized copies of the summaries of the POMDP and the U-mode compressors, in this order
+	 */
+	synchronized SummarySession [] getSummaries(int nRun) {
+		if (nBlockMerged != MonteCarloEngine.numBlocks(nRun)) throw new IllegalStateException(nBlockMerged + " blocks merged, " + MonteCarloEngine.numBlocks(nRun) + " expected");
+		SummarySession [] summaries = new SummarySession [summaryCum.length];
+		for (int i = 0; i < summaryCum.length; i++) {
+			summaries[i] = new SummarySession(summaryCum[i].efficiency.length);
+			summaries[i].sum(summaryCum[i]); // Adding to an empty summary copies it exactly
+			summaries[i].normalize(nRun);
+		}
+		return summaries;
+	}
+}
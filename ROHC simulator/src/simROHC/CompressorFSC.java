@@ -0,0 +1,100 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * A compressor following a finite controller, typically compiled from the policy of a POMDP compressor by {@link FiniteController#compile(CompressorPOMDP, double, int)}.
+ * Transmitting a packet takes two array lookups instead of the belief update and the search for the best alpha vector.
+ *
+ */
+public class CompressorFSC implements Compressor {
+	final FiniteController controller;
+	/** The channel estimator entity. */
+	final CompressorPOMDP.ChannelEstimator channelEstimator;
+	/** The current node of the controller */
+	int node;
+	/** The channel observation made when transmitting the last packet */
+	boolean channelObs;
+
+	List<Integer> log;
+	/** Whether the packets transmitted are recorded in {@link #log} */
+	boolean logEnabled = true;
+	/** The index of the next packet since the reset, counted only for {@link Metrics} */
+	int iPacket;
+
+	/**
+	 * Create a compressor following a controller
+	 * @param controller		the controller, starting from node 0
+	 * @param channelEstimator	the channel estimator that the ROHC compressor use to observe the channel
+	 */
+	public CompressorFSC(FiniteController controller, CompressorPOMDP.ChannelEstimator channelEstimator) {
+		this.controller = controller;
+		this.channelEstimator = channelEstimator;
+		log = new ArrayList<Integer> ();
+		reset();
+	}
+
+	/**
+	 * Enable or disable the recording of the packets transmitted
+	 * @param logEnabled
+	 */
+	public void setLogEnabled(boolean logEnabled) {
+		this.logEnabled = logEnabled;
+		if (!logEnabled) log.clear();
+	}
+
+	public void reset() {
+		node = 0;
+		iPacket = 0;
+		log.clear();
+	}
+
+	public int transmit() {
+		long timeStart = (Metrics.ENABLED ? System.nanoTime() : 0);
+		int typePacket = controller.action[node];
+		channelObs = channelEstimator.getChannelEst();
+		node = controller.next[2 * node + (channelObs ? 1 : 0)];
+
+		if (logEnabled) log.add(typePacket);
+		if (Metrics.ENABLED) Metrics.recordTransmit(Metrics.FSC, iPacket++, typePacket, System.nanoTime() - timeStart);
+		return typePacket;
+	}
+
+	/**
+	 * Compile the policy of out.policy with several tolerances, and compare the controllers with the POMDP compressor.
+	 * The exact summary of a controller is given by {@link MarkovEvaluator#evaluate(FiniteController)}, as long as its number of nodes is small
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, "out.policy", 200);
+		Channel channel = new Channel(params.eps, params.lB, new Xoroshiro128Plus(20151231L));
+		channel.setLogEnabled(false);
+		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, params.pFA, params.pMD, new Xoroshiro128Plus(1));
+		CompressorPOMDP compressorPOMDP = new CompressorPOMDP(params.W, channel.pBG, channel.pGB, channelEstimator, params.filename);
+		compressorPOMDP.setLogEnabled(false);
+
+		int nPacket = 10000000;
+		long timeStart = System.nanoTime();
+		for (int n = 0; n < nPacket; n++) compressorPOMDP.transmit();
+		System.out.println("POMDP compressor: " + (System.nanoTime() - timeStart) / (double) nPacket + " ns per packet");
+
+		double [] tolerances = {0.3, 0.1, 0.03, 0.01};
+		for (double tolerance : tolerances) {
+			timeStart = System.nanoTime();
+			FiniteController controller = FiniteController.compile(compressorPOMDP, tolerance, 1000000);
+			double timeCompile = (System.nanoTime() - timeStart) / 1e9;
+
+			CompressorFSC compressor = new CompressorFSC(controller, channelEstimator);
+			compressor.setLogEnabled(false);
+			timeStart = System.nanoTime();
+			for (int n = 0; n < nPacket; n++) compressor.transmit();
+			double timeTransmit = (System.nanoTime() - timeStart) / (double) nPacket;
+
+			System.out.println("Tolerance " + tolerance + ": " + controller.getNumNodes() + " nodes compiled in " + timeCompile + " s, " + timeTransmit + " ns per packet");
+			System.out.println("  " + FiniteController.drift(compressorPOMDP, controller, params, 20000, 20151231L));
+		}
+	}
+}
@@ -1,17 +1,12 @@
 package simROHC;
 
-import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.jblas.DoubleMatrix;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * 
@@ -30,17 +25,25 @@ public class CompressorPOMDP implements Compressor {
 		final double pFA;
 		/** The miss detection probability (the channel is bad but estimation is good). */
 		final double pMD;
+		/** The random stream driving the estimation errors. */
+		final RandomStream rng;
 		
 		/** Create a channel estimator and associate with a Channel object. */
-		public ChannelEstimator(Channel channel, double pFA, double pMD) {
+		public ChannelEstimator(Channel channel, double pFA, double pMD, RandomStream rng) {
 			this.channel = channel;
 			this.pFA = pFA;
 			this.pMD = pMD;
+			this.rng = rng;
+		}
+		
+		/** Create a channel estimator driven by a random stream seeded from the system clock. */
+		public ChannelEstimator(Channel channel, double pFA, double pMD) {
+			this(channel, pFA, pMD, new Xoroshiro128Plus(System.nanoTime()));
 		}
 		
 		/** Estimate the current channel state. */
 		public boolean getChannelEst() {
-			double tmp = Math.random();
+			double tmp = rng.nextDouble();
 			if (channel.getChannelState()) {
 				return tmp > pFA;
 			} else {
@@ -72,19 +75,27 @@ public class CompressorPOMDP implements Compressor {
 	final ChannelEstimator channelEstimator;
 	/** The compressor's belief on the system's state, in the order of NC_B, NC_G, SC_B, SC_G, FC_0, FC_1, ..., FC_{W - 1}*/
 	DoubleMatrix belief; // The states are defined 
+	/** The buffer receiving the next belief, swapped with {@link #belief} after each update */
+	DoubleMatrix beliefNext;
 	/** System's state transition matrix, corresponding to action IR, FO and SO, respectively. */
 	DoubleMatrix [] funcTransition;
+	/** The non-zero entries of {@link #funcTransition}, used to update the belief */
+	SparseTransition [] sparseTransition;
 	/** System's observation probability vector, corresponding to observation bad and good, respectively. */
 	DoubleMatrix [] funcObservation;
 	
-	/** The vectors representing compressor's policy */
-	DoubleMatrix [] vectorPolicies;
-	/** The action to take corresponding to each vector */
-	int [] actionPolicies;
-	/** The reward corresponding to each vectors at current belief, used to select the best action */
-	double [] reward;
+	/** The vectors representing compressor's policy and the action to take corresponding to each vector */
+	AlphaVectorPolicy policy;
 	/** The history of the decompressor's state, channel observation and the type of packets transmitted */
 	List<LogEntry> log;
+	/** Whether the history is recorded in {@link #log} */
+	boolean logEnabled = true;
+	/** The channel observation made when transmitting the last packet */
+	boolean channelObs;
+	/** The cache of the decisions, if any */
+	DecisionCache decisionCache;
+	/** The index of the next packet since the reset, counted only for {@link Metrics} */
+	int iPacket;
 	/**
 	 * Create a POMDP compressor
 	 * @param W
@@ -92,9 +103,28 @@ public class CompressorPOMDP implements Compressor {
 	 * @param pGB
 	 * @param channelEstimator the channel estimator that the ROHC compressor use to observe the channel
 	 * @param filename the .policy file to parse the policy vectors and actions
+	 * @throws IllegalArgumentException if the policy cannot be loaded or does not match W
 	 * @see #parsePolicy(String)
 	 */
 	public CompressorPOMDP(int W, double pBG, double pGB, ChannelEstimator channelEstimator, String filename){
+		this(W, pBG, pGB, channelEstimator, (AlphaVectorPolicy) null);
+		
+		// initialize #policy
+		parsePolicy(filename);
+	}
+	
+	/**
+	 * Create a POMDP compressor following a policy already in memory
+	 * @param W
+	 * @param pBG
+	 * @param pGB
+	 * @param channelEstimator the channel estimator that the ROHC compressor use to observe the channel
+	 * @param policy the policy, e.g. computed by {@link PointBasedSolver}, or null to only build the model and set the policy later
+	 * @throws IllegalArgumentException if pBG or pGB is not a probability
+	 * @see #setPolicy(AlphaVectorPolicy)
+	 */
+	public CompressorPOMDP(int W, double pBG, double pGB, ChannelEstimator channelEstimator, AlphaVectorPolicy policy){
+		if (!(pBG >= 0 && pBG <= 1 && pGB >= 0 && pGB <= 1)) throw new IllegalArgumentException("The transition probabilities of the channel pBG = " + pBG + " and pGB = " + pGB + " must be in [0, 1]");
 		this.W = W;
 		this.pBG = pBG;
 		this.pGB = pGB;
@@ -104,13 +134,11 @@ public class CompressorPOMDP implements Compressor {
 		double pGG = 1 - pGB;
 		
 		belief = DoubleMatrix.zeros(1, 4 + W); 
+		beliefNext = DoubleMatrix.zeros(1, 4 + W);
 		log = new ArrayList<LogEntry> ();
 		reset();
 		
-		// initialize #vectorPolicies and #actionPolicies
-		parsePolicy(filename);
-		
-		reward = new double [vectorPolicies.length];
+		if (policy != null) setPolicy(policy);
 		
 		// initialize transition function
 		funcTransition = new DoubleMatrix[3];
@@ -144,6 +172,9 @@ public class CompressorPOMDP implements Compressor {
 		funcTransition[2].put(2, 3, pBG);
 		funcTransition[2].put(3, 3, pGG);
 		
+		sparseTransition = new SparseTransition[3];
+		for (int a = 0; a < 3; a++) sparseTransition[a] = new SparseTransition(funcTransition[a]);
+		
 		// initialize observation function
 		double pMD = channelEstimator.pMD;
 		double pFA = channelEstimator.pFA;
@@ -161,34 +192,39 @@ public class CompressorPOMDP implements Compressor {
 	}
 	
 	/**
-	 * Initialize {@link #vectorPolicies} and {@link #actionPolicies} by parsing the policy file
+	 * Initialize {@link #policy} by parsing the policy file. The policy is shared with the other compressors using the same file.
 	 * @param filename the filename of the .policy file
+	 * @throws IllegalArgumentException if the file cannot be loaded or its vectors do not have 4 + W entries
+	 * @see PolicyCache#load(String)
 	 */
 	void parsePolicy(String filename) {
+		AlphaVectorPolicy policyLoaded;
 		try {
-			File filePolicy = new File(filename);
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document doc = dBuilder.parse(filePolicy);
-			
-			doc.getDocumentElement().normalize();
-			NodeList vectors = doc.getElementsByTagName("Vector");
-			
-			vectorPolicies = new DoubleMatrix [vectors.getLength()];
-			actionPolicies = new int [vectors.getLength()];
-			for (int i = 0; i < vectors.getLength(); i++) {
-				Node vector = vectors.item(i);
-				String [] vectorStr = vector.getTextContent().trim().split(" ");
-				vectorPolicies[i] = new DoubleMatrix(vectorStr.length, 1);
-				for (int j = 0; j < vectorStr.length; j++) {
-					vectorPolicies[i].put(j, Double.parseDouble(vectorStr[j]));
-				}
-				
-				actionPolicies[i] = Integer.parseInt(((Element)vector).getAttribute("action"));
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			policyLoaded = PolicyCache.load(filename);
+		} catch (IOException | XMLStreamException e) {
+			throw new IllegalArgumentException("Cannot load the policy " + filename, e);
 		}
+		if (policyLoaded.nState != 4 + W) throw new IllegalArgumentException("The vectors of " + filename + " have " + policyLoaded.nState + " entries instead of " + (4 + W));
+		setPolicy(policyLoaded);
+	}
+	
+	/**
+	 * Follow another policy
+	 * @param policy the policy, its vectors must have 4 + W entries
+	 */
+	public void setPolicy(AlphaVectorPolicy policy) {
+		if (policy.nState != 4 + W) throw new IllegalArgumentException("The vectors of the policy have " + policy.nState + " entries instead of " + (4 + W));
+		this.policy = policy;
+		if (decisionCache != null) decisionCache.clear();
+	}
+	
+	/**
+	 * Take the decisions through a cache instead of evaluating the policy at each packet
+	 * @param decisionCache	the cache, owned by this compressor, or null to evaluate the policy at each packet
+	 */
+	public void setDecisionCache(DecisionCache decisionCache) {
+		this.decisionCache = decisionCache;
+		if (decisionCache != null) decisionCache.clear();
 	}
 	
 	/**
@@ -197,9 +233,35 @@ public class CompressorPOMDP implements Compressor {
 	 * @param obsChannel, the observed channel state from the channel estimator
 	 */
 	void updateBelief(int typePacket, boolean obsChannel) {
+		updateBelief(belief.data, typePacket, obsChannel, beliefNext.data);
+		
+		// Swap the two buffers
+		DoubleMatrix tmp = belief;
+		belief = beliefNext;
+		beliefNext = tmp;
+	}
+	
+	/**
+	 * Compute the belief on the system state following a given belief, without changing the compressor's own belief
+	 * @param beliefCurrent	the current belief
+	 * @param typePacket	the packet transmitted (action taken), takes value from 0, 1, 2
+	 * @param obsChannel	the observed channel state
+	 * @param beliefNext	the buffer receiving the next belief, must not be beliefCurrent
+	 * @return the likelihood of the observation p(o|b,a)
+	 */
+	double updateBelief(double [] beliefCurrent, int typePacket, boolean obsChannel, double [] beliefNext) {
 		int idxObs = obsChannel ? 1 : 0;
-		double likelihood = funcObservation[idxObs].dot(belief.mmul(funcTransition[typePacket])); // p(o|b,a)
-		belief = funcObservation[idxObs].mul(belief.mmul(funcTransition[typePacket])).mmul(1 / likelihood); // update the belief
+		double [] obs = funcObservation[idxObs].data;
+		sparseTransition[typePacket].propagate(beliefCurrent, beliefNext); // b * T(a)
+		
+		double likelihood = 0; // p(o|b,a)
+		for (int i = 0; i < beliefNext.length; i++) {
+			beliefNext[i] *= obs[i];
+			likelihood += beliefNext[i];
+		}
+		double scale = 1 / likelihood;
+		for (int i = 0; i < beliefNext.length; i++) beliefNext[i] *= scale; // update the belief
+		return likelihood;
 	}
 	
 	/**
@@ -210,6 +272,8 @@ public class CompressorPOMDP implements Compressor {
 		for (int i = 0; i < 4 + W; i++) belief.put(i, 0);
 		belief.put(0, pGB / (pBG + pGB));
 		belief.put(1, pBG / (pBG + pGB));
+		if (decisionCache != null) decisionCache.reset();
+		iPacket = 0;
 		
 		log.clear();
 	}
@@ -218,28 +282,33 @@ public class CompressorPOMDP implements Compressor {
 	 * Transmit the packet that maximize the expected reward and update the belief.
 	 */
 	public int transmit() {
-		for (int p = 0; p < reward.length; p++) {
-			reward[p] = belief.dot(vectorPolicies[p]);
-		}
-		
-		double maxReward = reward[0];
-		int policyMaxReward = 0;
-		for (int p = 1; p < reward.length; p++) {
-			if (maxReward < reward[p]) {
-				maxReward = reward[p];
-				policyMaxReward = p;
-			}
+		long timeStart = 0;
+		if (Metrics.ENABLED) {
+			Metrics.recordBelief(belief.data);
+			timeStart = System.nanoTime();
 		}
+		DecisionCache.Entry entry = (decisionCache == null ? null : decisionCache.lookup(this));
+		int typePacket = (entry == null ? policy.bestAction(belief.data) : entry.action);
 		
-		boolean channelObs = channelEstimator.getChannelEst();
-		int typePacket = actionPolicies[policyMaxReward];
-		log.add(new LogEntry (belief, channelObs, typePacket));
+		channelObs = channelEstimator.getChannelEst();
+		if (logEnabled) log.add(new LogEntry (belief.dup(), channelObs, typePacket)); // The belief buffer is overwritten by the next update
 		
 		
-		updateBelief(typePacket, channelObs);
+		if (entry == null) updateBelief(typePacket, channelObs);
+		else decisionCache.next(this, entry, channelObs);
+		if (Metrics.ENABLED) Metrics.recordTransmit(Metrics.POMDP, iPacket++, typePacket, System.nanoTime() - timeStart);
 		return typePacket;
 	}
 	
+	/**
+	 * Enable or disable the recording of the belief, channel observation and packet history
+	 * @param logEnabled
+	 */
+	public void setLogEnabled(boolean logEnabled) {
+		this.logEnabled = logEnabled;
+		if (!logEnabled) log.clear();
+	}
+	
 	public List<Integer> getLogPacketType() {
 		List<Integer> logPacketType = new ArrayList<Integer> (log.size());
 		for (int i = 0; i < log.size(); i++) {
@@ -18,6 +18,10 @@ public class CompressorTimer implements Compressor {
 	int timer;
 
 	List<Integer> log;
+	/** Whether the packets transmitted are recorded in {@link #log} */
+	boolean logEnabled = true;
+	/** The index of the next packet since the reset, counted only for {@link Metrics} */
+	int iPacket;
 	
 	CompressorTimer (int timeOutIR2SO, int timeOutSO2FO, int timeOutFO2SO) {
 		this.timeOutIR2SO = timeOutIR2SO;
@@ -30,13 +34,24 @@ public class CompressorTimer implements Compressor {
 		log = new ArrayList<Integer> ();
 	}
 
+	/**
+	 * Enable or disable the recording of the packets transmitted
+	 * @param logEnabled
+	 */
+	public void setLogEnabled(boolean logEnabled) {
+		this.logEnabled = logEnabled;
+		if (!logEnabled) log.clear();
+	}
+
 	public void reset() {
 		typeCurrent = 0;
 		timer = 0;
+		iPacket = 0;
 		log.clear();
 	}
 	
 	public int transmit() {
+		long timeStart = (Metrics.ENABLED ? System.nanoTime() : 0);
 		int type = typeCurrent;
 		timer++;
 		switch (typeCurrent) {
@@ -62,7 +77,8 @@ public class CompressorTimer implements Compressor {
 			}
 		}
 		
-		log.add(type);
+		if (logEnabled) log.add(type);
+		if (Metrics.ENABLED) Metrics.recordTransmit(Metrics.TIMER, iPacket++, type, System.nanoTime() - timeStart);
 		return type;
 	}
 }
@@ -0,0 +1,274 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ *
+ * Spreads the runs of one configuration over {@link Worker} processes, on this host or on others, connected to a server socket.
+ * The blocks of {@link MonteCarloEngine#RUNS_PER_BLOCK} runs are handed out in ranges; a worker simulates its range in order and streams back the summaries of each block,
+ * which are merged in block order through a {@link Checkpoint}, so the result is the same as the one of {@link MonteCarloEngine#run(int)} with the same seed.
+ * When a worker dies, or sends nothing during {@link #timeoutMillis}, its connection is closed and the blocks of its range not received yet are handed out again first.
+ * The workers can join at any time, e.g. to replace the dead ones.
+ *
+ * The protocol is binary, big-endian. The worker sends {@link #MAGIC}; the coordinator answers with the configuration: {@link #MAGIC}, the parameters
+ * ({@link SimulationParameters#writeTo(java.io.DataOutput)}), the seed, the number of runs, qGB and qBG (NaN without importance sampling) and the sojourn sampling flag.
+ * Then the coordinator sends a range as two ints [first block, end block), answered by the index of each block followed by its two summaries
+ * ({@link SummarySession#writeTo(java.io.DataOutput)}), and so on until it sends -1.
+ *
+ */
+public class Coordinator {
+	/** The magic number opening both sides of a connection ("ROHCWRK1") */
+	static final long MAGIC = 0x524F484357524B31L;
+
+	final SimulationParameters params;
+	final long seed;
+	final int nRun;
+	/** The biased transition probabilities of the channel, NaN without importance sampling */
+	double qGB = Double.NaN, qBG = Double.NaN;
+	boolean isSojournSampling;
+	/** The number of blocks handed out at once */
+	int nBlockPerRange = 20;
+	/** The time after which a silent worker is considered dead, in ms */
+	int timeoutMillis = 60000;
+	/** The checkpoint file, if any, and the minimal time between two writes in ms */
+	File fileCheckpoint;
+	long intervalCheckpoint;
+
+	/** The ranges to hand out, the ones of the dead workers first */
+	final Deque<int []> ranges = new ArrayDeque<int []> ();
+	/** The summaries merged so far */
+	Checkpoint checkpoint;
+	/** Whether all the blocks are merged */
+	boolean isDone;
+
+	/**
+	 * @param params	the parameters of the sessions
+	 * @param seed		the seed of the campaign
+	 * @param nRun		the number of runs
+	 */
+	public Coordinator(SimulationParameters params, long seed, int nRun) {
+		this.params = params;
+		this.seed = seed;
+		this.nRun = nRun;
+	}
+
+	/** @see MonteCarloEngine#setImportanceSampling(double, double) */
+	public void setImportanceSampling(double qGB, double qBG) {
+		this.qGB = qGB;
+		this.qBG = qBG;
+	}
+
+	/** @see MonteCarloEngine#setSojournSampling(boolean) */
+	public void setSojournSampling(boolean isSojournSampling) {
+		this.isSojournSampling = isSojournSampling;
+	}
+
+	/**
+	 * @param nBlockPerRange	the number of blocks handed out at once; the smaller, the less work is lost with a worker and the more messages
+	 */
+	public void setBlocksPerRange(int nBlockPerRange) {
+		this.nBlockPerRange = nBlockPerRange;
+	}
+
+	/**
+	 * @param timeoutMillis	the time after which a worker that sent nothing is considered dead, in ms; longer than the simulation of one block
+	 */
+	public void setTimeout(int timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/** @see MonteCarloEngine#setCheckpoint(File, long) */
+	public void setCheckpoint(File fileCheckpoint, long intervalMillis) {
+		this.fileCheckpoint = fileCheckpoint;
+		this.intervalCheckpoint = intervalMillis;
+	}
+
+	/**
+	 * @return an engine with the configuration of the coordinator, which the workers also build
+	 */
+	MonteCarloEngine createEngine() {
+		MonteCarloEngine engine = new MonteCarloEngine(params, 1, seed);
+		if (!Double.isNaN(qGB)) engine.setImportanceSampling(qGB, qBG);
+		engine.setSojournSampling(isSojournSampling);
+		return engine;
+	}
+
+	/**
+	 * Serve the workers connecting to a server socket until all the runs are merged
+	 * @param server	the server socket, closed at the end
+	 * @return the normalized summaries of the POMDP and the U-mode compressors, in this order
+	 * @throws IOException if the checkpoint file cannot be read or written
+	 * @throws InterruptedException
+	 */
+	public SummarySession [] run(final ServerSocket server) throws IOException, InterruptedException {
+		// The same checkpoint as a single process, so a campaign can be resumed either way
+		checkpoint = Checkpoint.open(fileCheckpoint, createEngine().describe() + ", run " + nRun, params.N, intervalCheckpoint);
+		checkpoint.nRunTarget = nRun;
+		final int nBlock = MonteCarloEngine.numBlocks(nRun);
+		synchronized (this) {
+			for (int iBlock = checkpoint.nBlockMerged; iBlock < nBlock; iBlock += nBlockPerRange) ranges.add(new int [] {iBlock, Math.min(nBlock, iBlock + nBlockPerRange)});
+			isDone = ranges.isEmpty();
+		}
+
+		final List<Thread> threads = new ArrayList<Thread> ();
+		Thread acceptor = new Thread("Coordinator acceptor") {
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						Thread thread = new Thread("Coordinator " + socket.getRemoteSocketAddress()) {
+							public void run() {
+								serve(socket);
+							}
+						};
+						thread.setDaemon(true);
+						synchronized (threads) {
+							threads.add(thread);
+						}
+						thread.start();
+					} catch (IOException e) { // Closed at the end
+						if (!server.isClosed()) e.printStackTrace();
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		try {
+			synchronized (this) {
+				while (!isDone) wait();
+			}
+		} finally {
+			server.close();
+		}
+		synchronized (threads) { // Let the workers connected receive the end of the work
+			for (Thread thread : threads) thread.join(timeoutMillis);
+		}
+		if (fileCheckpoint != null) checkpoint.write();
+		return checkpoint.getSummaries(nRun);
+	}
+
+	/**
+	 * @return the next range to hand out, waiting for one while other workers are busy, or null when all the blocks are merged
+	 * @throws InterruptedException
+	 */
+	synchronized int [] take() throws InterruptedException {
+		while (ranges.isEmpty() && !isDone) wait();
+		return (isDone ? null : ranges.poll());
+	}
+
+	/**
+	 * Hand out again the part of a range not received from a worker
+	 * @param range	the blocks [range[0], range[1])
+	 */
+	synchronized void giveBack(int [] range) {
+		ranges.addFirst(range); // The first blocks not merged block the merge of the following ones
+		notifyAll();
+	}
+
+	synchronized void checkDone() {
+		if (checkpoint.nBlockMerged == MonteCarloEngine.numBlocks(nRun)) {
+			isDone = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Hand out ranges to a worker and merge the summaries it sends back, until all the blocks are merged or the worker is lost
+	 * @param socket	the connection to the worker
+	 */
+	void serve(Socket socket) {
+		int [] range = null;
+		try {
+			socket.setSoTimeout(timeoutMillis);
+			socket.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			if (input.readLong() != MAGIC) throw new IOException("Not a worker");
+
+			output.writeLong(MAGIC);
+			params.writeTo(output);
+			output.writeLong(seed);
+			output.writeInt(nRun);
+			output.writeDouble(qGB);
+			output.writeDouble(qBG);
+			output.writeBoolean(isSojournSampling);
+
+			while ((range = take()) != null) {
+				output.writeInt(range[0]);
+				output.writeInt(range[1]);
+				output.flush();
+				while (range[0] < range[1]) {
+					int iBlock = input.readInt();
+					if (iBlock != range[0]) throw new IOException("Block " + iBlock + " received instead of " + range[0]);
+					SummarySession [] summaries = {SummarySession.readFrom(input, params.N), SummarySession.readFrom(input, params.N)};
+					checkpoint.complete(iBlock, summaries);
+					range[0]++;
+				}
+				range = null;
+				checkDone();
+			}
+			output.writeInt(-1);
+			output.flush();
+		} catch (IOException e) {
+			System.err.println("Worker " + socket.getRemoteSocketAddress() + " lost: " + e);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			if (range != null && range[0] < range[1]) giveBack(range);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Simulate the configuration of {@link Simulator#main(String[])} with worker processes started on this host
+	 * @param args	the number of runs, the number of local workers (0 to wait for workers started by hand), optionally the port, 0 for any,
+	 * 				and the address to listen on, the loopback address by default; the workers are not authenticated, so only listen on a trusted network
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: Coordinator <nRun> <nWorker> [port] [host]");
+			System.exit(1);
+		}
+		int nRun = Integer.parseInt(args[0]);
+		int nWorker = Integer.parseInt(args[1]);
+		int port = (args.length > 2 ? Integer.parseInt(args[2]) : 0);
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, "out.policy", 200);
+		Coordinator coordinator = new Coordinator(params, 20151231L, nRun);
+
+		InetAddress address = (args.length > 3 ? InetAddress.getByName(args[3]) : InetAddress.getLoopbackAddress());
+		ServerSocket server = new ServerSocket(port, 50, address);
+		System.out.println("Waiting for workers on " + server.getLocalSocketAddress());
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> workers = new ArrayList<Process> ();
+		for (int i = 0; i < nWorker; i++) {
+			ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "simROHC.Worker", "localhost", Integer.toString(server.getLocalPort()));
+			workers.add(builder.inheritIO().start());
+		}
+
+		long timeStart = System.nanoTime();
+		SummarySession [] summaries = coordinator.run(server);
+		System.out.println(summaries[0]);
+		System.out.println(summaries[1]);
+		System.out.println(nRun + " runs in " + (System.nanoTime() - timeStart) / 1e9 + " s");
+		for (Process worker : workers) worker.waitFor();
+	}
+}
@@ -0,0 +1,269 @@
+package simROHC;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * A cache of the decisions of a {@link CompressorPOMDP}: the action taken at a belief and the next belief after each observation.
+ * A hit replaces the search for the best alpha vector and the belief update by a lookup and a copy.
+ *
+ * The beliefs are keyed either by their value rounded to a grid, the decisions of a cell being the ones of the first belief of the cell met,
+ * or by the history of the last (action, observation) pairs since the reset, which determines the belief exactly as long as it is not longer than the depth.
+ * In both cases the belief of the compressor follows the cached beliefs, so the cache trades the accuracy of the belief for speed; {@link #setAudit(boolean)} measures it.
+ * The number of entries is bounded, the least recently used entry being evicted.
+ *
+ * A cache is owned by a single compressor, and is only valid for the policy and the model of that compressor.
+ *
+ */
+public class DecisionCache {
+	/** How the beliefs are keyed */
+	public enum Mode {
+		/** The belief rounded to a grid */
+		QUANTIZED,
+		/** The last (action, observation) pairs since the reset */
+		HISTORY
+	}
+
+	/** The maximal depth of the history keys, 3 bits per pair */
+	static final int MAX_DEPTH = 19;
+
+	/**
+	 * The decisions at a belief
+	 */
+	static class Entry {
+		/** The action taken */
+		final int action;
+		/** The belief the decisions were computed at */
+		final double [] belief;
+		/** The next belief after a bad (index 0) and a good (index 1) observation, computed the first time they are needed */
+		final double [][] beliefNext = new double [2][];
+		/** The quantized belief, to tell apart the grid cells whose hashes collide; null for history keys */
+		final int [] code;
+
+		Entry(int action, double [] belief, int [] code) {
+			this.action = action;
+			this.belief = belief;
+			this.code = code;
+		}
+	}
+
+	/**
+	 * The counters of a cache, summed over the blocks simulated by {@link MonteCarloEngine}
+	 */
+	public static class Statistics {
+		long nHit;
+		long nMiss;
+		long nEviction;
+		/** The number of hits compared with the exact evaluation, and how many of them took another action */
+		long nAudit;
+		long nActionMismatch;
+		/** The sum and the maximum of the L1 distance between the cached next belief and the exact update of the belief, over the hits audited */
+		double sumBeliefError;
+		double maxBeliefError;
+
+		void add(Statistics statistics) {
+			nHit += statistics.nHit;
+			nMiss += statistics.nMiss;
+			nEviction += statistics.nEviction;
+			nAudit += statistics.nAudit;
+			nActionMismatch += statistics.nActionMismatch;
+			sumBeliefError += statistics.sumBeliefError;
+			maxBeliefError = Math.max(maxBeliefError, statistics.maxBeliefError);
+		}
+
+		void clear() {
+			nHit = nMiss = nEviction = nAudit = nActionMismatch = 0;
+			sumBeliefError = maxBeliefError = 0;
+		}
+
+		public double getHitRate() {
+			return ((double) nHit) / (nHit + nMiss);
+		}
+
+		/**
+		 * @return the fraction of the hits audited whose cached action differs from the best action at the belief
+		 */
+		public double getActionMismatchRate() {
+			return ((double) nActionMismatch) / nAudit;
+		}
+
+		/**
+		 * @return the mean L1 distance between the cached next belief and the exact update, over the hits audited
+		 */
+		public double getMeanBeliefError() {
+			return sumBeliefError / nAudit;
+		}
+
+		public String toString() {
+			String output = "Decision cache: hit rate " + getHitRate() + " (" + nHit + " hits, " + nMiss + " misses, " + nEviction + " evictions)";
+			if (nAudit > 0) output += ", action mismatch " + getActionMismatchRate() + ", belief error mean " + getMeanBeliefError() + " max " + maxBeliefError;
+			return output;
+		}
+	}
+
+	final Mode mode;
+	/** The step of the grid, for {@link Mode#QUANTIZED} */
+	final double step;
+	/** The number of pairs of the history keys, for {@link Mode#HISTORY} */
+	final int depth;
+	/** The maximal number of entries */
+	final int maxEntry;
+
+	/** The entries, in access order */
+	final LinkedHashMap<Long, Entry> entries;
+	final Statistics statistics = new Statistics();
+	/** Whether each hit is compared with the exact evaluation */
+	boolean isAudit;
+	/** Whether the last lookup was a hit */
+	boolean isLastHit;
+
+	/** The last pairs since the reset, 3 bits per pair, the latest in the lowest bits */
+	long history;
+	/** The number of pairs in {@link #history}, at most {@link #depth} */
+	int lenHistory;
+	/** The buffers of the quantized belief and of the audit */
+	int [] code;
+	double [] beliefExact;
+
+	DecisionCache(Mode mode, double step, int depth, final int maxEntry) {
+		this.mode = mode;
+		this.step = step;
+		this.depth = depth;
+		this.maxEntry = maxEntry;
+		entries = new LinkedHashMap<Long, Entry> (16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, DecisionCache.Entry> eldest) {
+				if (size() <= maxEntry) return false;
+				statistics.nEviction++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * A cache keyed by the belief rounded to a grid
+	 * @param step		the step of the grid, the smaller the more accurate
+	 * @param maxEntry	the maximal number of entries
+	 * @return an empty cache
+	 */
+	public static DecisionCache quantized(double step, int maxEntry) {
+		if (!(step > 0)) throw new IllegalArgumentException("The step of the grid must be positive, got " + step);
+		return new DecisionCache(Mode.QUANTIZED, step, 0, maxEntry);
+	}
+
+	/**
+	 * A cache keyed by the last (action, observation) pairs since the reset
+	 * @param depth		the number of pairs, from 1 to {@link #MAX_DEPTH}; the deeper the more accurate
+	 * @param maxEntry	the maximal number of entries
+	 * @return an empty cache
+	 */
+	public static DecisionCache history(int depth, int maxEntry) {
+		if (depth < 1 || depth > MAX_DEPTH) throw new IllegalArgumentException("The depth must be in [1, " + MAX_DEPTH + "], got " + depth);
+		return new DecisionCache(Mode.HISTORY, 0, depth, maxEntry);
+	}
+
+	/**
+	 * @return an empty cache with the same configuration, for another compressor
+	 */
+	public DecisionCache emptyCopy() {
+		DecisionCache cache = new DecisionCache(mode, step, depth, maxEntry);
+		cache.isAudit = isAudit;
+		return cache;
+	}
+
+	/**
+	 * Compare each hit with the exact evaluation, at the cost of the evaluation
+	 * @param isAudit
+	 */
+	public void setAudit(boolean isAudit) {
+		this.isAudit = isAudit;
+	}
+
+	public Statistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Remove all the entries, e.g. when the policy changes
+	 */
+	public void clear() {
+		entries.clear();
+		reset();
+	}
+
+	/**
+	 * Start a new session, the history keys starting from the reset belief
+	 */
+	void reset() {
+		history = 0;
+		lenHistory = 0;
+	}
+
+	/**
+	 * Find the decisions at the current belief of a compressor, computing them on a miss
+	 * @param compressor	the compressor owning the cache
+	 * @return the entry of the belief
+	 */
+	Entry lookup(CompressorPOMDP compressor) {
+		double [] belief = compressor.belief.data;
+		long key;
+		if (mode == Mode.QUANTIZED) {
+			if (code == null) code = new int [belief.length];
+			key = 0;
+			for (int s = 0; s < belief.length; s++) {
+				code[s] = (int) Math.round(belief[s] / step);
+				key = Xoroshiro128Plus.mix64(key + code[s]);
+			}
+		} else {
+			key = history | ((long) lenHistory << (3 * MAX_DEPTH));
+		}
+
+		Entry entry = entries.get(key);
+		if (entry != null && (entry.code == null || Arrays.equals(entry.code, code))) {
+			statistics.nHit++;
+			isLastHit = true;
+			if (isAudit) {
+				statistics.nAudit++;
+				if (compressor.policy.bestAction(belief) != entry.action) statistics.nActionMismatch++;
+			}
+			return entry;
+		}
+		statistics.nMiss++;
+		isLastHit = false;
+		entry = new Entry(compressor.policy.bestAction(belief), belief.clone(), (mode == Mode.QUANTIZED ? code.clone() : null));
+		entries.put(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Move the belief of a compressor to the cached next belief
+	 * @param compressor	the compressor owning the cache
+	 * @param entry			the entry returned by {@link #lookup(CompressorPOMDP)} for the current belief
+	 * @param obsChannel	the channel observation
+	 */
+	void next(CompressorPOMDP compressor, Entry entry, boolean obsChannel) {
+		int o = (obsChannel ? 1 : 0);
+		if (entry.beliefNext[o] == null) {
+			entry.beliefNext[o] = new double [entry.belief.length];
+			compressor.updateBelief(entry.belief, entry.action, obsChannel, entry.beliefNext[o]);
+		}
+		double [] belief = compressor.belief.data;
+		if (isAudit && isLastHit) { // On a miss the entry is computed at the belief itself
+			if (beliefExact == null) beliefExact = new double [belief.length];
+			compressor.updateBelief(belief, entry.action, obsChannel, beliefExact);
+			double error = 0;
+			for (int s = 0; s < belief.length; s++) error += Math.abs(beliefExact[s] - entry.beliefNext[o][s]);
+			statistics.sumBeliefError += error;
+			statistics.maxBeliefError = Math.max(statistics.maxBeliefError, error);
+		}
+		System.arraycopy(entry.beliefNext[o], 0, belief, 0, belief.length);
+
+		if (mode == Mode.HISTORY) {
+			history = ((history << 3) | (entry.action << 1) | o) & ((1L << (3 * depth)) - 1);
+			lenHistory = Math.min(lenHistory + 1, depth);
+		}
+	}
+}
@@ -0,0 +1,626 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * Takes the decisions of a POMDP compressor for many live ROHC contexts, e.g. the flows of a real compressor, one decision per outgoing packet.
+ * The contexts share the model and the policy of one {@link CompressorPOMDP}, and their beliefs live in one preallocated slab.
+ *
+ * A decision first updates the belief of the context with the action of its previous decision and the latest output of its channel estimator,
+ * then takes the best action at the new belief, so a context takes the decisions of {@link CompressorPOMDP#transmit()} given the same observations.
+ * The requests are served by a single decision thread: those arriving within {@link #windowNanos} of the first one of a batch are batched,
+ * and the policy is evaluated for the whole batch by {@link AlphaVectorPolicy#bestVectors(double[], int[], int, int[], double[])}.
+ *
+ * The service is used in process through {@link #decide(int, boolean)} and {@link #decide(int[], boolean[], int[], int)} from any number of threads,
+ * or through a socket with {@link #listen(ServerSocket)} and {@link Client}. The protocol is binary, big-endian: both sides send {@link #MAGIC},
+ * then each request is an operation byte: {@link #OPEN}, answered by the context (int, -1 if none is free), {@link #CLOSE} or {@link #RESET} followed by the context,
+ * not answered, or {@link #DECIDE} followed by the number of decisions n and n (context int, observation byte), answered by the n actions (bytes).
+ * A connection can only close, reset and decide for the contexts it opened, which are closed with it.
+ *
+ */
+public class DecisionService {
+	/** The magic number opening both sides of a connection ("ROHCDEC1") */
+	static final long MAGIC = 0x524F484344454331L;
+	/** The operations of the socket protocol */
+	static final byte OPEN = 0, CLOSE = 1, RESET = 2, DECIDE = 3;
+	/** The number of times a caller polls its request before parking */
+	static final int N_SPIN = 100;
+
+	/**
+	 * Decisions submitted together, by one caller
+	 */
+	static class Request {
+		int [] context;
+		boolean [] obs;
+		int [] action;
+		int n;
+		/** The time of the submission, in ns */
+		long timeSubmit;
+		/** Whether the request was dropped by the shutdown of the service instead of evaluated, set before {@link #isDone} */
+		boolean isCancelled;
+		volatile boolean isDone;
+		Thread waiter;
+	}
+
+	/**
+	 * The counters of the service since it started
+	 */
+	public static class Statistics {
+		long nDecision;
+		long nBatch;
+		/** The time from the submission of each request to its completion, in ns, and the number of decisions of each batch */
+		final Metrics.Histogram latency = Metrics.Histogram.log2();
+		final Metrics.Histogram sizeBatch = Metrics.Histogram.log2();
+		/** The time the service has run, in ns */
+		long time;
+
+		public double getDecisionsPerSecond() {
+			return nDecision / (time / 1e9);
+		}
+
+		/**
+		 * @return the 99th percentile of the decision latency, in ns
+		 */
+		public double getLatencyP99() {
+			return latency.quantile(0.99);
+		}
+
+		public String toString() {
+			return String.format("%d decisions, %.0f per second, %d batches of %.1f decisions on average, latency (ns) p50 %.0f p99 %.0f max %.0f",
+					nDecision, getDecisionsPerSecond(), nBatch, sizeBatch.sum / sizeBatch.n, latency.quantile(0.5), latency.quantile(0.99), latency.maxValue);
+		}
+	}
+
+	final CompressorPOMDP model;
+	final AlphaVectorPolicy policy;
+	final int nState;
+	final int maxContext;
+	/** The beliefs of the contexts, context c occupying index c * nState to (c + 1) * nState (exclusive) */
+	final double [] belief;
+	/** The initial belief of a context, as {@link CompressorPOMDP#reset()} */
+	final double [] beliefInit;
+	/** The action of the last decision of each context, -1 before the first one */
+	final byte [] actionLast;
+	final boolean [] isOpen;
+	/** The stack of the contexts not open */
+	final int [] free;
+	int nFree;
+
+	/** The time the requests are batched after the first one of a batch, in ns */
+	final long windowNanos;
+	/** The maximal number of decisions evaluated together */
+	final int maxBatch;
+	final ArrayBlockingQueue<Request> queue;
+	/** The request of each caller of {@link #decide(int, boolean)} */
+	final ThreadLocal<Request> requests = new ThreadLocal<Request> () {
+		protected Request initialValue() {
+			Request request = new Request();
+			request.context = new int [1];
+			request.obs = new boolean [1];
+			request.action = new int [1];
+			request.n = 1;
+			request.waiter = Thread.currentThread();
+			return request;
+		}
+	};
+
+	Thread thread;
+	volatile boolean isRunning;
+	/** The counters, updated by the decision thread once per batch */
+	final Statistics statistics = new Statistics();
+	long timeStart;
+
+	/**
+	 * @param model			the compressor giving the model and the policy, only used as a model
+	 * @param maxContext	the maximal number of contexts open at once
+	 * @param windowNanos	the time the requests are batched after the first one of a batch, in ns; 0 to batch only the requests already waiting
+	 * @param maxBatch		the maximal number of decisions evaluated together
+	 */
+	public DecisionService(CompressorPOMDP model, int maxContext, long windowNanos, int maxBatch) {
+		this.model = model;
+		this.policy = model.policy;
+		this.nState = policy.nState;
+		this.maxContext = maxContext;
+		this.windowNanos = windowNanos;
+		this.maxBatch = maxBatch;
+
+		model.reset();
+		beliefInit = model.belief.data.clone();
+		belief = new double [maxContext * nState];
+		actionLast = new byte [maxContext];
+		isOpen = new boolean [maxContext];
+		free = new int [maxContext];
+		for (int c = 0; c < maxContext; c++) free[c] = maxContext - 1 - c; // Context 0 first
+		nFree = maxContext;
+		queue = new ArrayBlockingQueue<Request> (Math.max(maxContext, 1024));
+	}
+
+	/**
+	 * Start the decision thread
+	 */
+	public synchronized void start() {
+		if (isRunning) return;
+		isRunning = true;
+		timeStart = System.nanoTime();
+		thread = new Thread("Decision service") {
+			public void run() {
+				try {
+					serveRequests();
+				} finally {
+					isRunning = false;
+					cancelPending();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the decision thread, once the requests being evaluated are done. The requests still queued are cancelled, their callers getting an {@link IllegalStateException}.
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			isRunning = false;
+			thread = this.thread;
+		}
+		if (thread != null) thread.join();
+	}
+
+	/**
+	 * Wake up the callers of the requests left in the queue once the decision thread stopped
+	 */
+	void cancelPending() {
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.isCancelled = true;
+			request.isDone = true;
+			LockSupport.unpark(request.waiter);
+		}
+	}
+
+	/**
+	 * Open a context, in the reset state
+	 * @return the context, or -1 if all the contexts are open
+	 */
+	public synchronized int open() {
+		if (nFree == 0) return -1;
+		int context = free[--nFree];
+		isOpen[context] = true;
+		reset(context);
+		return context;
+	}
+
+	/**
+	 * Close a context, e.g. when its flow ends
+	 * @param context
+	 */
+	public synchronized void close(int context) {
+		check(context);
+		isOpen[context] = false;
+		free[nFree++] = context;
+	}
+
+	/**
+	 * Start a context again from the initial belief, e.g. when the flow restarts; must not be called while a decision of the context is pending
+	 * @param context
+	 */
+	public void reset(int context) {
+		check(context);
+		System.arraycopy(beliefInit, 0, belief, context * nState, nState);
+		actionLast[context] = -1;
+	}
+
+	void check(int context) {
+		if (context < 0 || context >= maxContext || !isOpen[context]) throw new IllegalArgumentException("Context " + context + " is not open");
+	}
+
+	/**
+	 * Take the decision for the next packet of a context. A context must not have two decisions pending at once.
+	 * @param context	the context
+	 * @param obs		the latest output of the channel estimator of the context, ignored for the first decision after the opening or the reset
+	 * @return the packet type to transmit, 0, 1 or 2 for IR, FO and SO
+	 */
+	public int decide(int context, boolean obs) {
+		Request request = requests.get();
+		request.context[0] = context;
+		request.obs[0] = obs;
+		submit(request);
+		return request.action[0];
+	}
+
+	/**
+	 * Take the decisions for the next packet of several contexts at once
+	 * @param context	the contexts
+	 * @param obs		the latest output of the channel estimator of each context
+	 * @param action	the array receiving the packet type of each context
+	 * @param n			the number of decisions
+	 */
+	public void decide(int [] context, boolean [] obs, int [] action, int n) {
+		Request request = new Request();
+		request.context = context;
+		request.obs = obs;
+		request.action = action;
+		request.n = n;
+		request.waiter = Thread.currentThread();
+		submit(request);
+	}
+
+	/**
+	 * Queue a request and wait for its decisions
+	 * @param request
+	 * @throws IllegalStateException if the service is not running or shuts down before evaluating the request
+	 */
+	void submit(Request request) {
+		if (request.n == 0) return;
+		for (int i = 0; i < request.n; i++) check(request.context[i]);
+		if (!isRunning) throw new IllegalStateException("The decision service is not running");
+		request.isCancelled = false;
+		request.isDone = false;
+		request.timeSubmit = System.nanoTime();
+		try {
+			queue.put(request);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+		// Queued after the decision thread cancelled the pending requests: nobody else will take it
+		if (!isRunning && queue.remove(request)) throw new IllegalStateException("The decision service is not running");
+		for (int spin = 0; !request.isDone; spin++) {
+			if (spin >= N_SPIN) LockSupport.park(this);
+		}
+		if (request.isCancelled) throw new IllegalStateException("The decision service shut down before the decision");
+	}
+
+	/**
+	 * The loop of the decision thread: collect a batch of requests, evaluate it, wake up the callers
+	 */
+	void serveRequests() {
+		List<Request> batch = new ArrayList<Request> ();
+		int [] contexts = new int [maxBatch];
+		boolean [] obs = new boolean [maxBatch];
+		int [] offset = new int [maxBatch];
+		int [] best = new int [maxBatch];
+		double [] maxReward = new double [maxBatch];
+		double [] beliefCurrent = new double [nState];
+		double [] beliefNext = new double [nState];
+		/** The segment each context was last evaluated in, to evaluate the decisions of a context one at a time */
+		long [] segmentLast = new long [maxContext];
+		long iSegment = 0;
+
+		while (isRunning) {
+			Request first;
+			try {
+				first = queue.poll(10, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return;
+			}
+			if (first == null) continue;
+
+			// Collect the requests of the window
+			batch.clear();
+			batch.add(first);
+			int nDecision = first.n;
+			long deadline = System.nanoTime() + windowNanos;
+			while (nDecision < maxBatch) {
+				Request request = queue.poll();
+				if (request != null) {
+					batch.add(request);
+					nDecision += request.n;
+				} else if (System.nanoTime() >= deadline) {
+					break;
+				}
+			}
+
+			// Evaluate the decisions in segments of distinct contexts of at most maxBatch decisions
+			int iRequest = 0, iDecision = 0;
+			while (iRequest < batch.size()) {
+				iSegment++;
+				int n = 0;
+				int iRequestStart = iRequest, iDecisionStart = iDecision;
+				while (iRequest < batch.size() && n < maxBatch) {
+					Request request = batch.get(iRequest);
+					int context = request.context[iDecision];
+					if (segmentLast[context] == iSegment) break; // A second decision of the same context waits for the first one
+					segmentLast[context] = iSegment;
+					contexts[n] = context;
+					obs[n] = request.obs[iDecision];
+					offset[n] = context * nState;
+					n++;
+					if (++iDecision == request.n) {
+						iRequest++;
+						iDecision = 0;
+					}
+				}
+
+				for (int i = 0; i < n; i++) {
+					int a = actionLast[contexts[i]];
+					if (a < 0) continue;
+					System.arraycopy(belief, offset[i], beliefCurrent, 0, nState);
+					model.updateBelief(beliefCurrent, a, obs[i], beliefNext);
+					System.arraycopy(beliefNext, 0, belief, offset[i], nState);
+				}
+				policy.bestVectors(belief, offset, n, best, maxReward);
+
+				for (int i = 0; i < n; i++) {
+					Request request = batch.get(iRequestStart);
+					int action = policy.action[best[i]];
+					actionLast[contexts[i]] = (byte) action;
+					request.action[iDecisionStart] = action;
+					if (++iDecisionStart == request.n) {
+						iRequestStart++;
+						iDecisionStart = 0;
+					}
+				}
+			}
+
+			long timeDone = System.nanoTime();
+			synchronized (statistics) {
+				for (Request request : batch) statistics.latency.add(timeDone - request.timeSubmit);
+				statistics.sizeBatch.add(nDecision);
+				statistics.nDecision += nDecision;
+				statistics.nBatch++;
+			}
+			for (Request request : batch) {
+				request.isDone = true;
+				LockSupport.unpark(request.waiter);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the counters since the start of the service
+	 */
+	public Statistics getStatistics() {
+		Statistics copy = new Statistics();
+		synchronized (statistics) {
+			copy.nDecision = statistics.nDecision;
+			copy.nBatch = statistics.nBatch;
+			copy.latency.add(statistics.latency);
+			copy.sizeBatch.add(statistics.sizeBatch);
+		}
+		copy.time = System.nanoTime() - timeStart;
+		return copy;
+	}
+
+	/**
+	 * Serve the clients connecting to a server socket, until it is closed
+	 * @param server	the server socket
+	 */
+	public void listen(final ServerSocket server) {
+		Thread acceptor = new Thread("Decision service acceptor") {
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						final Socket socket = server.accept();
+						Thread thread = new Thread("Decision service " + socket.getRemoteSocketAddress()) {
+							public void run() {
+								serve(socket);
+							}
+						};
+						thread.setDaemon(true);
+						thread.start();
+					} catch (IOException e) {
+						if (!server.isClosed()) e.printStackTrace();
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Serve the requests of a client until it disconnects
+	 * @param socket	the connection to the client
+	 */
+	void serve(Socket socket) {
+		Set<Integer> contextsOpen = new HashSet<Integer> ();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			if (input.readLong() != MAGIC) throw new IOException("Not a decision client");
+			output.writeLong(MAGIC);
+			output.flush();
+
+			int [] contexts = new int [0];
+			boolean [] obs = new boolean [0];
+			int [] actions = new int [0];
+			int op;
+			while ((op = input.read()) >= 0) {
+				switch (op) {
+					case OPEN: {
+						int context = open();
+						if (context >= 0) contextsOpen.add(context);
+						output.writeInt(context);
+						break;
+					}
+					case CLOSE: {
+						int context = input.readInt();
+						if (!contextsOpen.remove(context)) throw new IOException("Context " + context + " not opened by this connection");
+						close(context);
+						break;
+					}
+					case RESET: {
+						int context = input.readInt();
+						if (!contextsOpen.contains(context)) throw new IOException("Context " + context + " not opened by this connection");
+						reset(context);
+						break;
+					}
+					case DECIDE: {
+						int n = input.readInt();
+						if (n < 0 || n > maxContext) throw new IOException("Invalid number of decisions " + n);
+						if (contexts.length < n) {
+							contexts = new int [n];
+							obs = new boolean [n];
+							actions = new int [n];
+						}
+						for (int i = 0; i < n; i++) {
+							contexts[i] = input.readInt();
+							obs[i] = input.readBoolean();
+							if (!contextsOpen.contains(contexts[i])) throw new IOException("Context " + contexts[i] + " not opened by this connection");
+						}
+						decide(contexts, obs, actions, n);
+						for (int i = 0; i < n; i++) output.writeByte(actions[i]);
+						break;
+					}
+					default: throw new IOException("Unknown operation " + op);
+				}
+				if (input.available() == 0) output.flush(); // The pipelined requests are answered together
+			}
+		} catch (IOException e) {
+			System.err.println("Client " + socket.getRemoteSocketAddress() + " lost: " + e);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			System.err.println("Client " + socket.getRemoteSocketAddress() + " dropped: " + e.getMessage());
+		} finally {
+			for (int context : contextsOpen) close(context);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A client of the socket front end, owned by one thread
+	 */
+	public static class Client implements Closeable {
+		final Socket socket;
+		final DataInputStream input;
+		final DataOutputStream output;
+
+		public Client(String host, int port) throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			output.writeLong(MAGIC);
+			output.flush();
+			if (input.readLong() != MAGIC) throw new IOException("Not a decision service");
+		}
+
+		/** @see DecisionService#open() */
+		public int open() throws IOException {
+			output.writeByte(OPEN);
+			output.flush();
+			return input.readInt();
+		}
+
+		/** @see DecisionService#close(int) */
+		public void close(int context) throws IOException {
+			output.writeByte(CLOSE);
+			output.writeInt(context);
+		}
+
+		/** @see DecisionService#reset(int) */
+		public void reset(int context) throws IOException {
+			output.writeByte(RESET);
+			output.writeInt(context);
+		}
+
+		/** @see DecisionService#decide(int[], boolean[], int[], int) */
+		public void decide(int [] context, boolean [] obs, int [] action, int n) throws IOException {
+			output.writeByte(DECIDE);
+			output.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				output.writeInt(context[i]);
+				output.writeBoolean(obs[i]);
+			}
+			output.flush();
+			for (int i = 0; i < n; i++) action[i] = input.readByte();
+		}
+
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Serve 10000 contexts with the policy of out.policy, first in process from several threads, then through a local socket, and report the latency and the throughput
+	 * @param args	optionally the number of client threads (4 by default) and the batching window in ns (1000 by default)
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		final int nThread = (args.length > 0 ? Integer.parseInt(args[0]) : 4);
+		long windowNanos = (args.length > 1 ? Long.parseLong(args[1]) : 1000);
+		final int nContext = 10000;
+		final long duration = 5000000000L;
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, "out.policy", 200);
+		Channel channel = new Channel(params.eps, params.lB, new Xoroshiro128Plus(20151231L));
+		CompressorPOMDP model = new CompressorPOMDP(params.W, channel.pBG, channel.pGB, new CompressorPOMDP.ChannelEstimator(channel, params.pFA, params.pMD, new Xoroshiro128Plus(1)), params.filename);
+
+		final DecisionService service = new DecisionService(model, nContext, windowNanos, 256);
+		service.start();
+
+		// In process: each thread sends the packets of its flows in turn, the observations being drawn at random
+		Thread [] threads = new Thread [nThread];
+		for (int t = 0; t < nThread; t++) {
+			final int iThread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					Xoroshiro128Plus rng = new Xoroshiro128Plus(iThread);
+					int [] contexts = new int [nContext / nThread];
+					for (int i = 0; i < contexts.length; i++) contexts[i] = service.open();
+					long timeEnd = System.nanoTime() + duration;
+					for (int i = 0; System.nanoTime() < timeEnd; i = (i + 1) % contexts.length) {
+						service.decide(contexts[i], rng.nextDouble() > 0.2);
+					}
+					for (int context : contexts) service.close(context);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		System.out.println("In process, " + nThread + " threads: " + service.getStatistics());
+
+		// Through a socket: one client sending the decisions of its flows 256 at a time
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		service.listen(server);
+		Client client = new Client("localhost", server.getLocalPort());
+		int n = 256;
+		int [] contexts = new int [nContext];
+		for (int i = 0; i < nContext; i++) contexts[i] = client.open();
+		int [] group = new int [n];
+		boolean [] obs = new boolean [n];
+		int [] actions = new int [n];
+		Xoroshiro128Plus rng = new Xoroshiro128Plus(nThread);
+		Metrics.Histogram latency = Metrics.Histogram.log2();
+		long nDecision = 0;
+		long timeStart = System.nanoTime();
+		for (int i = 0; System.nanoTime() - timeStart < duration; i = (i + n) % (nContext - n)) {
+			for (int k = 0; k < n; k++) {
+				group[k] = contexts[i + k];
+				obs[k] = rng.nextDouble() > 0.2;
+			}
+			long timeRequest = System.nanoTime();
+			client.decide(group, obs, actions, n);
+			latency.add(System.nanoTime() - timeRequest);
+			nDecision += n;
+		}
+		double time = (System.nanoTime() - timeStart) / 1e9;
+		client.close();
+		System.out.println(String.format("Socket, groups of %d: %.0f decisions per second, round trip (ns) p50 %.0f p99 %.0f", n, nDecision / time, latency.quantile(0.5), latency.quantile(0.99)));
+		server.close();
+		service.shutdown();
+	}
+}
@@ -19,6 +19,14 @@ public class Decompressor {
 	int w;
 	/** The history of the decompressor's state */
 	List<LogEntry> log;
+	/** Whether the history is recorded in {@link #log} */
+	boolean logEnabled = true;
+	/** The accumulator fed with each packet received, if any */
+	SessionAccumulator accumulator;
+	/** Whether the transitions are recorded in {@link Metrics}, false for the decompressors only used to tabulate them */
+	boolean metricsEnabled = true;
+	/** The number of packets received in SC since entering it, counted only for {@link Metrics}; the visits cut by a reset are not recorded */
+	int nPacketSC;
 	
 	/**
 	 * The entry class of the decompressor's log
@@ -57,8 +65,63 @@ public class Decompressor {
 	public void reset() {
 		state = State.NC;
 		w = 0;
+		nPacketSC = 0;
 		log.clear();
-		log.add(new LogEntry(w, state));
+		if (logEnabled) log.add(new LogEntry(w, state));
+	}
+	
+	/**
+	* Enable or disable the recording of the decompressor's state history
+	* @param logEnabled
+	*/
+	public void setLogEnabled(boolean logEnabled) {
+		this.logEnabled = logEnabled;
+		if (!logEnabled) log.clear();
+	}
+	
+	/**
+	* Feed an accumulator with each packet received, together with the decompressor's state before receiving it
+	* @param accumulator the accumulator, or null to stop feeding it
+	*/
+	public void setAccumulator(SessionAccumulator accumulator) {
+		this.accumulator = accumulator;
+	}
+	
+	/**
+	* The decompressor's state as a single integer
+	* @return 0 for NC, 1 for SC and 2 + w for FC
+	*/
+	public int getStateCode() {
+		switch (state) {
+			case NC: return 0;
+			case SC: return 1;
+			default: return 2 + w;
+		}
+	}
+	
+	/**
+	* Tabulate the transitions of the decompressor, by running {@link #next(boolean, int)} from each state
+	* @param W the WLSB capacity
+	* @return the next state code, indexed by the state code, the channel state (0 bad, 1 good) and the packet type
+	* @see #getStateCode()
+	*/
+	static int [][][] transitionTable(int W) {
+		int nStateCode = W + 2;
+		int [][][] table = new int [nStateCode][2][3];
+		Decompressor decompressor = new Decompressor(W);
+		decompressor.setLogEnabled(false);
+		decompressor.metricsEnabled = false;
+		for (int code = 0; code < nStateCode; code++) {
+			for (int g = 0; g < 2; g++) {
+				for (int a = 0; a < 3; a++) {
+					decompressor.state = (code == 0 ? State.NC : (code == 1 ? State.SC : State.FC));
+					decompressor.w = (code == 0 ? 0 : (code == 1 ? W : code - 2));
+					decompressor.next(g == 1, a);
+					table[code][g][a] = decompressor.getStateCode();
+				}
+			}
+		}
+		return table;
 	}
 	
 	/**
@@ -67,6 +130,8 @@ public class Decompressor {
 	* @param typePacket take value from 0, 1, 2 representing IR, FO, SO packets respectively
 	*/
 	public void next(boolean channelState, int typePacket) {
+		if (accumulator != null) accumulator.next(channelState, typePacket, state);
+		State stateBefore = state;
 		if (!channelState) { // Last channel is bad,
 			// Remains in NC/SC
 			if (state == State.FC) w++;
@@ -91,6 +156,13 @@ public class Decompressor {
 				}
 			}
 		}
-		log.add(new LogEntry(w, state));
+		if (Metrics.ENABLED && metricsEnabled) {
+			if (stateBefore == State.SC) nPacketSC++;
+			if (state != stateBefore) {
+				Metrics.recordTransition(stateBefore, state, nPacketSC);
+				nPacketSC = 0;
+			}
+		}
+		if (logEnabled) log.add(new LogEntry(w, state));
 	}
 }
@@ -0,0 +1,332 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * A compressor with a finite number of internal states (nodes): each node transmits a fixed packet type,
+ * and the next node only depends on the current node and the channel observation.
+ * Node 0 is the state of the compressor after {@link Compressor#reset()}.
+ *
+ */
+public class FiniteController {
+	/** The packet type transmitted in each node */
+	final int [] action;
+	/** The next node, node i going to next[2 * i] after a bad observation and to next[2 * i + 1] after a good one */
+	final int [] next;
+	/** The belief each node stands for, for controllers compiled from a policy */
+	double [][] belief;
+
+	FiniteController(int [] action, int [] next) {
+		this.action = action;
+		this.next = next;
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int getNumNodes() {
+		return action.length;
+	}
+
+	/**
+	 * The controller of a U-mode compressor, whose nodes are the (current packet type, timer) phases reachable from the reset state
+	 * @param timeOutIR2SO
+	 * @param timeOutSO2FO
+	 * @param timeOutFO2SO
+	 * @return the controller, ignoring the observations
+	 * @see CompressorTimer
+	 */
+	public static FiniteController fromTimer(int timeOutIR2SO, int timeOutSO2FO, int timeOutFO2SO) {
+		CompressorTimer compressor = new CompressorTimer(timeOutIR2SO, timeOutSO2FO, timeOutFO2SO);
+		compressor.setLogEnabled(false);
+
+		Map<List<Integer>, Integer> nodes = new HashMap<List<Integer>, Integer> ();
+		List<int []> phases = new ArrayList<int []> ();
+		List<Integer> action = new ArrayList<Integer> ();
+		List<Integer> next = new ArrayList<Integer> ();
+		nodes.put(Arrays.asList(0, 0), 0);
+		phases.add(new int [] {0, 0});
+		for (int node = 0; node < phases.size(); node++) {
+			compressor.typeCurrent = phases.get(node)[0];
+			compressor.timer = phases.get(node)[1];
+			action.add(compressor.transmit());
+
+			List<Integer> phaseNext = Arrays.asList(compressor.typeCurrent, compressor.timer);
+			Integer nodeNext = nodes.get(phaseNext);
+			if (nodeNext == null) {
+				nodeNext = phases.size();
+				nodes.put(phaseNext, nodeNext);
+				phases.add(new int [] {compressor.typeCurrent, compressor.timer});
+			}
+			next.add(nodeNext);
+			next.add(nodeNext);
+		}
+		return new FiniteController(toArray(action), toArray(next));
+	}
+
+	/**
+	 * The controller of a POMDP compressor, whose nodes are the beliefs reachable from the reset belief.
+	 * The set of reachable beliefs is finite when the channel estimator is perfect (pFA = pMD = 0), as in the fully observable model of gen_pomdpx.py.
+	 * @param compressor	the POMDP compressor, its belief is reset
+	 * @param maxNode		the maximal number of nodes to explore
+	 * @return the controller, exactly equivalent to the compressor
+	 * @throws IllegalStateException if more than maxNode beliefs are reachable
+	 */
+	public static FiniteController fromBeliefs(CompressorPOMDP compressor, int maxNode) {
+		compressor.reset();
+		int nState = 4 + compressor.W;
+
+		Map<BeliefKey, Integer> nodes = new HashMap<BeliefKey, Integer> ();
+		List<double []> beliefs = new ArrayList<double []> ();
+		List<Integer> action = new ArrayList<Integer> ();
+		List<Integer> next = new ArrayList<Integer> ();
+		double [] beliefInit = compressor.belief.data.clone();
+		nodes.put(new BeliefKey(beliefInit), 0);
+		beliefs.add(beliefInit);
+		for (int node = 0; node < beliefs.size(); node++) {
+			double [] belief = beliefs.get(node);
+			int typePacket = compressor.policy.bestAction(belief);
+			action.add(typePacket);
+			for (int obs = 0; obs < 2; obs++) {
+				double [] beliefNext = new double [nState];
+				compressor.updateBelief(belief, typePacket, obs == 1, beliefNext);
+				BeliefKey key = new BeliefKey(beliefNext);
+				Integer nodeNext = nodes.get(key);
+				if (nodeNext == null) {
+					if (beliefs.size() == maxNode) throw new IllegalStateException("More than " + maxNode + " beliefs are reachable, the channel estimator is probably not perfect");
+					nodeNext = beliefs.size();
+					nodes.put(key, nodeNext);
+					beliefs.add(beliefNext);
+				}
+				next.add(nodeNext);
+			}
+		}
+		return new FiniteController(toArray(action), toArray(next));
+	}
+
+	/**
+	 * Compile the policy of a POMDP compressor into a controller, by unrolling the policy from the reset belief.
+	 * A belief reached is merged into an existing node when the same alpha vector is the best at both, both lie in the same cell of a grid of step tolerance,
+	 * and their L1 distance is at most the tolerance, so that the controller is finite even when the channel estimator is not perfect. The controller takes the decisions of the belief of its node,
+	 * the beliefs of the merged nodes being lost: {@link #drift(CompressorPOMDP, FiniteController, SimulationParameters, int, long)} measures how far its behavior is from the compressor's.
+	 * @param compressor	the POMDP compressor, its belief is reset
+	 * @param tolerance		the largest L1 distance between the beliefs merged, 0 to only merge equal beliefs
+	 * @param maxNode		the maximal number of nodes
+	 * @return the controller, whose {@link #belief} are the beliefs of the nodes
+	 * @throws IllegalStateException if more than maxNode nodes are needed
+	 */
+	public static FiniteController compile(CompressorPOMDP compressor, double tolerance, int maxNode) {
+		compressor.reset();
+		int nState = 4 + compressor.W;
+		AlphaVectorPolicy policy = compressor.policy;
+
+		Map<BeliefKey, List<Integer>> nodesByCell = new HashMap<BeliefKey, List<Integer>> (); // The nodes by best vector and cell of their belief
+		List<double []> beliefs = new ArrayList<double []> ();
+		List<Integer> action = new ArrayList<Integer> ();
+		List<Integer> next = new ArrayList<Integer> ();
+		double [] beliefInit = compressor.belief.data.clone();
+		int vectorInit = policy.bestVector(beliefInit);
+		nodesByCell.put(cell(beliefInit, vectorInit, tolerance), new ArrayList<Integer> (Arrays.asList(0)));
+		beliefs.add(beliefInit);
+		action.add(policy.action[vectorInit]);
+		for (int node = 0; node < beliefs.size(); node++) {
+			double [] belief = beliefs.get(node);
+			int typePacket = action.get(node);
+			for (int obs = 0; obs < 2; obs++) {
+				double [] beliefNext = new double [nState];
+				compressor.updateBelief(belief, typePacket, obs == 1, beliefNext);
+				int vector = policy.bestVector(beliefNext);
+				BeliefKey key = cell(beliefNext, vector, tolerance);
+				List<Integer> candidates = nodesByCell.get(key);
+				if (candidates == null) {
+					candidates = new ArrayList<Integer> ();
+					nodesByCell.put(key, candidates);
+				}
+
+				int nodeNext = -1;
+				for (int candidate : candidates) {
+					if (distance(beliefNext, beliefs.get(candidate)) <= tolerance) {
+						nodeNext = candidate;
+						break;
+					}
+				}
+				if (nodeNext == -1) {
+					if (beliefs.size() == maxNode) throw new IllegalStateException("More than " + maxNode + " nodes are needed, the tolerance " + tolerance + " is too small");
+					nodeNext = beliefs.size();
+					candidates.add(nodeNext);
+					beliefs.add(beliefNext);
+					action.add(policy.action[vector]);
+				}
+				next.add(nodeNext);
+			}
+		}
+		FiniteController controller = new FiniteController(toArray(action), toArray(next));
+		controller.belief = beliefs.toArray(new double [beliefs.size()][]);
+		return controller;
+	}
+
+	/**
+	 * The cell of the grid of step tolerance containing a belief, together with the best vector at the belief
+	 * @return the key of the cell, the belief itself if the tolerance is 0
+	 */
+	static BeliefKey cell(double [] belief, int vector, double tolerance) {
+		double [] cell = new double [belief.length + 1];
+		cell[0] = vector;
+		for (int s = 0; s < belief.length; s++) cell[s + 1] = (tolerance == 0 ? belief[s] : Math.floor(belief[s] / tolerance));
+		return new BeliefKey(cell);
+	}
+
+	/**
+	 * The L1 distance between two beliefs
+	 */
+	static double distance(double [] belief1, double [] belief2) {
+		double distance = 0;
+		for (int s = 0; s < belief1.length; s++) distance += Math.abs(belief1[s] - belief2[s]);
+		return distance;
+	}
+
+	/**
+	 * How far a compiled controller behaves from the POMDP compressor it was compiled from, over sessions simulated with both
+	 */
+	public static class Drift {
+		/** The number of sessions and of packets simulated */
+		int nSession;
+		long nPacket;
+		/** The number of packets for which the controller takes another action than the compressor */
+		long nActionMismatch;
+		/** The sum and the maximum of the L1 distance between the belief of the compressor and the belief of the controller's node */
+		double sumBeliefError;
+		double maxBeliefError;
+		/** The sums of the efficiency at the end of the sessions of the compressor and of the controller, and of the square of their difference */
+		double sumEfficiencyPOMDP;
+		double sumEfficiencyController;
+		double sumSquareDifference;
+
+		public double getActionMismatchRate() {
+			return ((double) nActionMismatch) / nPacket;
+		}
+
+		public double getMeanBeliefError() {
+			return sumBeliefError / nPacket;
+		}
+
+		/**
+		 * @return the mean difference between the efficiency of the controller and the one of the compressor at the end of a session
+		 */
+		public double getEfficiencyDifference() {
+			return (sumEfficiencyController - sumEfficiencyPOMDP) / nSession;
+		}
+
+		/**
+		 * @param z	the quantile of the normal distribution, e.g. {@link SummarySession#Z_95}
+		 * @return the half-width of the confidence interval on {@link #getEfficiencyDifference()}, small since both are simulated on the same channel
+		 */
+		public double getEfficiencyDifferenceHalfWidth(double z) {
+			double mean = getEfficiencyDifference();
+			return z * Math.sqrt((sumSquareDifference / nSession - mean * mean) / (nSession - 1));
+		}
+
+		public String toString() {
+			return "Drift: action mismatch " + getActionMismatchRate() + ", belief error mean " + getMeanBeliefError() + " max " + maxBeliefError
+					+ ", efficiency " + sumEfficiencyController / nSession + " vs " + sumEfficiencyPOMDP / nSession + " (difference " + getEfficiencyDifference() + " +- " + getEfficiencyDifferenceHalfWidth(SummarySession.Z_95) + ")";
+		}
+	}
+
+	/**
+	 * Simulate sessions of a POMDP compressor and of a controller compiled from it side by side, both observing the same channel through the same estimator,
+	 * each with its own decompressor. The sessions are seeded as the runs of {@link MonteCarloEngine}.
+	 * @param compressor	the POMDP compressor, only used for its policy and model
+	 * @param controller	the controller, with the beliefs of its nodes
+	 * @param params		the parameters of the sessions
+	 * @param nSession		the number of sessions
+	 * @param seed			the seed of the sessions
+	 * @return the drift of the controller
+	 */
+	public static Drift drift(CompressorPOMDP compressor, FiniteController controller, SimulationParameters params, int nSession, long seed) {
+		Xoroshiro128Plus rngChannel = new Xoroshiro128Plus(seed);
+		Xoroshiro128Plus rngEstimator = new Xoroshiro128Plus(seed);
+		Channel channel = new Channel(compressor.pBG, compressor.pGB, rngChannel);
+		channel.setLogEnabled(false);
+		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, compressor.channelEstimator.pFA, compressor.channelEstimator.pMD, rngEstimator);
+		int [][][] nextStateDecompressor = Decompressor.transitionTable(compressor.W);
+		int [] lenPacket = {params.lenHeaderIR + params.lenPayload, params.lenHeaderFO + params.lenPayload, params.lenHeaderSO + params.lenPayload};
+
+		Drift drift = new Drift();
+		double [] belief = new double [4 + compressor.W];
+		double [] beliefNext = new double [belief.length];
+		for (int iSession = 0; iSession < nSession; iSession++) {
+			rngChannel.setSeed(Xoroshiro128Plus.runSeed(seed, iSession));
+			rngEstimator.copyFrom(rngChannel);
+			rngEstimator.jump();
+			channel.reset();
+			compressor.reset();
+			System.arraycopy(compressor.belief.data, 0, belief, 0, belief.length);
+			int node = 0;
+			int [] stateDecompressor = new int [2]; // Of the compressor and of the controller
+			long [] nByteTransmitted = new long [2];
+			long [] nByteReceived = new long [2];
+
+			for (int n = 0; n < params.N; n++) {
+				int [] typePacket = {compressor.policy.bestAction(belief), controller.action[node]};
+				if (typePacket[0] != typePacket[1]) drift.nActionMismatch++;
+				double error = distance(belief, controller.belief[node]);
+				drift.sumBeliefError += error;
+				drift.maxBeliefError = Math.max(drift.maxBeliefError, error);
+				drift.nPacket++;
+
+				int g = (channel.getChannelState() ? 1 : 0);
+				for (int c = 0; c < 2; c++) {
+					nByteTransmitted[c] += lenPacket[typePacket[c]];
+					if (MarkovEvaluator.isReceived(stateDecompressor[c], g, typePacket[c])) nByteReceived[c] += params.lenPayload;
+					stateDecompressor[c] = nextStateDecompressor[stateDecompressor[c]][g][typePacket[c]];
+				}
+
+				boolean obs = channelEstimator.getChannelEst();
+				compressor.updateBelief(belief, typePacket[0], obs, beliefNext);
+				double [] tmp = belief;
+				belief = beliefNext;
+				beliefNext = tmp;
+				node = controller.next[2 * node + (obs ? 1 : 0)];
+				channel.next();
+			}
+
+			double efficiencyPOMDP = ((double) nByteReceived[0]) / nByteTransmitted[0];
+			double efficiencyController = ((double) nByteReceived[1]) / nByteTransmitted[1];
+			drift.nSession++;
+			drift.sumEfficiencyPOMDP += efficiencyPOMDP;
+			drift.sumEfficiencyController += efficiencyController;
+			drift.sumSquareDifference += (efficiencyController - efficiencyPOMDP) * (efficiencyController - efficiencyPOMDP);
+		}
+		return drift;
+	}
+
+	/**
+	 * A belief used as a hash key, two beliefs being equal when all their entries are equal
+	 */
+	static class BeliefKey {
+		final double [] belief;
+
+		BeliefKey(double [] belief) {
+			this.belief = belief;
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(belief);
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof BeliefKey && Arrays.equals(belief, ((BeliefKey) other).belief);
+		}
+	}
+
+	static int [] toArray(List<Integer> list) {
+		int [] array = new int [list.size()];
+		for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+		return array;
+	}
+}
@@ -0,0 +1,306 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * A recorded packet loss trace, e.g. from drive tests, read through read-only memory mappings without loading it on the heap.
+ *
+ * The file contains, in big-endian order, the magic number {@link #MAGIC}, the number of packets (long) and one bit per packet,
+ * packet i being bit i % 8 (least significant first) of byte i / 8. A bit is 1 if the packet was lost (bad channel) and 0 if it was received (good channel).
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes, so traces of more than 2^31 bytes can be read.
+ *
+ */
+public class LossTrace {
+	/** The magic number at the beginning of a loss trace file ("ROHCLOS1") */
+	static final long MAGIC = 0x524F48434C4F5331L;
+	/** The size of the header, in bytes */
+	static final int HEADER_SIZE = 8 + 8;
+	/** The size of a mapped segment, in bytes */
+	static final int SEGMENT_SIZE = 1 << 30;
+
+	/** The mapped segments, segment k covering the bytes [k * SEGMENT_SIZE, (k + 1) * SEGMENT_SIZE) of the file */
+	final MappedByteBuffer [] segments;
+	/** The number of packets of the trace */
+	final long nPacket;
+
+	LossTrace(MappedByteBuffer [] segments, long nPacket) {
+		this.segments = segments;
+		this.nPacket = nPacket;
+	}
+
+	/**
+	 * Map a loss trace file
+	 * @param file	the loss trace file
+	 * @return the trace, backed by the read-only mapping of the file
+	 * @throws IOException if the file cannot be read or is not a loss trace file
+	 */
+	public static LossTrace open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			long length = input.length();
+			if (length < HEADER_SIZE || input.readLong() != MAGIC) throw new IOException(file + " is not a loss trace file");
+			long nPacket = input.readLong();
+			if (nPacket <= 0 || HEADER_SIZE + (nPacket + 7) / 8 != length) throw new IOException("Truncated or corrupted loss trace file");
+
+			MappedByteBuffer [] segments = new MappedByteBuffer [(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int k = 0; k < segments.length; k++) {
+				long start = (long) k * SEGMENT_SIZE;
+				segments[k] = input.getChannel().map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+			}
+			return new LossTrace(segments, nPacket);
+		} finally {
+			input.close(); // The mappings remain valid after the file is closed
+		}
+	}
+
+	/**
+	 * Record the states of a channel into a loss trace file, e.g. to replay a synthetic channel or to check a fit
+	 * @param channel	the channel, its current state being the first packet
+	 * @param nPacket	the number of packets
+	 * @param file		the file to create or overwrite
+	 * @throws IOException
+	 */
+	public static void write(Channel channel, long nPacket, File file) throws IOException {
+		DataOutputStream output = create(file, nPacket);
+		try {
+			int bits = 0;
+			for (long iPacket = 0; iPacket < nPacket; iPacket++) {
+				if (!channel.getChannelState()) bits |= 1 << (iPacket & 7);
+				if ((iPacket & 7) == 7 || iPacket == nPacket - 1) {
+					output.writeByte(bits);
+					bits = 0;
+				}
+				channel.next();
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Convert a text loss trace, one character '1' (lost) or '0' (received) per packet, the other characters being ignored
+	 * @param text	the text file
+	 * @param file	the loss trace file to create or overwrite
+	 * @return the number of packets
+	 * @throws IOException
+	 */
+	public static long convert(File text, File file) throws IOException {
+		long nPacket = 0;
+		InputStream input = new BufferedInputStream(new FileInputStream(text), 1 << 16);
+		try {
+			for (int c; (c = input.read()) != -1; ) {
+				if (c == '0' || c == '1') nPacket++;
+			}
+		} finally {
+			input.close();
+		}
+
+		DataOutputStream output = create(file, nPacket);
+		input = new BufferedInputStream(new FileInputStream(text), 1 << 16);
+		try {
+			int bits = 0;
+			long iPacket = 0;
+			for (int c; (c = input.read()) != -1; ) {
+				if (c != '0' && c != '1') continue;
+				if (c == '1') bits |= 1 << (iPacket & 7);
+				if ((iPacket & 7) == 7 || iPacket == nPacket - 1) {
+					output.writeByte(bits);
+					bits = 0;
+				}
+				iPacket++;
+			}
+		} finally {
+			input.close();
+			output.close();
+		}
+		return nPacket;
+	}
+
+	/** Create a loss trace file and write its header */
+	static DataOutputStream create(File file, long nPacket) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+		output.writeLong(MAGIC);
+		output.writeLong(nPacket);
+		return output;
+	}
+
+	public long getNumPackets() {
+		return nPacket;
+	}
+
+	/**
+	 * Get the channel state of a packet. Thread-safe.
+	 * @param iPacket	the index of the packet, in [0, {@link #getNumPackets()})
+	 * @return whether the packet was received
+	 */
+	public boolean isGood(long iPacket) {
+		long offset = HEADER_SIZE + (iPacket >>> 3);
+		int bits = segments[(int) (offset / SEGMENT_SIZE)].get((int) (offset % SEGMENT_SIZE));
+		return (bits & (1 << (iPacket & 7))) == 0;
+	}
+
+	/**
+	 * Fit a Markov model of the given order to the trace in a single sequential pass over the mapping.
+	 * The model of order 1 is the Gilbert-Elliott model of {@link Channel}, the model of order k has the last k channel states as its state.
+	 * @param order	the order of the model, from 1 to 16
+	 * @return the fit
+	 */
+	public Fit fit(int order) {
+		if (order < 1 || order > 16) throw new IllegalArgumentException("The order must be in [1, 16], got " + order);
+		Fit fit = new Fit(order);
+		int mask = (1 << order) - 1;
+		int context = 0; // The last states, the latest in bit 0, 1 for bad
+		long iPacket = 0;
+		byte [] chunk = new byte [1 << 16];
+		for (int k = 0; k < segments.length; k++) {
+			ByteBuffer segment = segments[k].duplicate(); // The position of the shared mapping is left untouched
+			segment.position(k == 0 ? HEADER_SIZE : 0);
+			while (segment.hasRemaining()) {
+				int length = Math.min(chunk.length, segment.remaining());
+				segment.get(chunk, 0, length);
+				for (int i = 0; i < length; i++) {
+					int bits = chunk[i];
+					int nBit = (int) Math.min(8, nPacket - iPacket);
+					for (int b = 0; b < nBit; b++, iPacket++) {
+						int bad = (bits >>> b) & 1;
+						if (iPacket >= order) fit.count[context][bad]++;
+						context = ((context << 1) | bad) & mask;
+					}
+				}
+			}
+		}
+		return fit;
+	}
+
+	/**
+	 * The transition counts of a Markov model of the channel states, fitted by {@link LossTrace#fit(int)}
+	 */
+	public static class Fit {
+		/** The order of the model */
+		final int order;
+		/** The number of good (index 0) and bad (index 1) packets following each state, a state being the last order channel states, the latest in bit 0 and 1 for bad */
+		final long [][] count;
+
+		Fit(int order) {
+			this.order = order;
+			this.count = new long [1 << order][2];
+		}
+
+		/**
+		 * Reduce the model to a lower order by summing the counts over the oldest channel states
+		 * @param order	the order, at most the order of this fit
+		 * @return the fit of the lower order model, over the same packets
+		 */
+		public Fit reduce(int order) {
+			Fit fit = new Fit(order);
+			int mask = (1 << order) - 1;
+			for (int c = 0; c < count.length; c++) {
+				fit.count[c & mask][0] += count[c][0];
+				fit.count[c & mask][1] += count[c][1];
+			}
+			return fit;
+		}
+
+		/**
+		 * @param state	the last channel states, the latest in bit 0 and 1 for bad
+		 * @return the estimated probability that the next packet is lost in this state, NaN if the state never occurred
+		 */
+		public double getLossProbability(int state) {
+			return ((double) count[state][1]) / (count[state][0] + count[state][1]);
+		}
+
+		/**
+		 * @return the probability that channel transit from good to bad of the fitted Gilbert-Elliott model
+		 */
+		public double getPGB() {
+			return reduce(1).getLossProbability(0);
+		}
+
+		/**
+		 * @return the probability that channel transit from bad to good of the fitted Gilbert-Elliott model
+		 */
+		public double getPBG() {
+			return 1 - reduce(1).getLossProbability(1);
+		}
+
+		/**
+		 * @return the fraction of the packets that were lost
+		 */
+		public double getEps() {
+			long nBad = 0, nTotal = 0;
+			for (int c = 0; c < count.length; c++) {
+				nBad += count[c][1];
+				nTotal += count[c][0] + count[c][1];
+			}
+			return ((double) nBad) / nTotal;
+		}
+
+		/**
+		 * The log-likelihood of the trace under the fitted model, to compare the orders with each other
+		 * @return the mean log-likelihood per packet, in bits
+		 */
+		public double getLogLikelihood() {
+			double logLikelihood = 0;
+			long nTotal = 0;
+			for (int c = 0; c < count.length; c++) {
+				long n = count[c][0] + count[c][1];
+				nTotal += n;
+				for (int x = 0; x < 2; x++) {
+					if (count[c][x] > 0) logLikelihood += count[c][x] * Math.log(((double) count[c][x]) / n);
+				}
+			}
+			return logLikelihood / nTotal / Math.log(2);
+		}
+
+		public String toString() {
+			StringBuilder output = new StringBuilder();
+			output.append("Markov model of order " + order + ": eps = " + getEps() + ", pGB = " + getPGB() + ", pBG = " + getPBG());
+			output.append(", log-likelihood " + getLogLikelihood() + " bits per packet\n");
+			return new String(output);
+		}
+	}
+
+	/**
+	 * Convert and fit loss traces
+	 * <ul>
+	 * <li>convert text file: convert a text loss trace into a loss trace file</li>
+	 * <li>fit file [order]: fit the Markov models of order 1 to order (4 by default) to a loss trace file</li>
+	 * <li>generate file eps lB nPacket [seed]: record a Gilbert-Elliott channel into a loss trace file</li>
+	 * </ul>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String [] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("convert")) {
+			System.out.println(convert(new File(args[1]), new File(args[2])) + " packets");
+		} else if (args.length >= 2 && args[0].equals("fit")) {
+			int order = (args.length > 2 ? Integer.parseInt(args[2]) : 4);
+			LossTrace trace = open(new File(args[1]));
+			long timeStart = System.nanoTime();
+			Fit fit = trace.fit(order);
+			System.out.println(trace.getNumPackets() + " packets fitted in " + (System.nanoTime() - timeStart) / 1e9 + " s");
+			for (int k = 1; k <= order; k++) System.out.print(fit.reduce(k));
+		} else if (args.length >= 5 && args[0].equals("generate")) {
+			long seed = (args.length > 5 ? Long.parseLong(args[5]) : System.nanoTime());
+			Channel channel = new Channel(Double.parseDouble(args[2]), Integer.parseInt(args[3]), new Xoroshiro128Plus(seed));
+			channel.setLogEnabled(false);
+			write(channel, Long.parseLong(args[4]), new File(args[1]));
+		} else {
+			System.out.println("Usage: LossTrace convert text file | fit file [order] | generate file eps lB nPacket [seed]");
+		}
+	}
+}
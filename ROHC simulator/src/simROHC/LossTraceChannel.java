@@ -0,0 +1,72 @@
+package simROHC;
+
+/**
+ *
+ * A channel replaying the states of a recorded {@link LossTrace} instead of drawing them from the Gilbert-Elliott model.
+ * Each session starts at a position of the trace drawn uniformly from the random stream, and wraps around at the end of the trace.
+ * The transition probabilities are the ones of the model the POMDP compressor assumes, typically fitted to the trace by {@link LossTrace#fit(int)}.
+ *
+ */
+public class LossTraceChannel extends Channel {
+	/** The trace replayed, shared by the channels of all the threads */
+	final LossTrace trace;
+	/** The position of the current channel state in the trace */
+	long position;
+
+	/**
+	 * Create a channel replaying a trace
+	 * @param trace	the loss trace
+	 * @param pBG	the probability that channel transit from bad to good of the model of the trace
+	 * @param pGB	the probability that channel transit from good to bad of the model of the trace
+	 * @param rng	the random stream drawing the start of each session
+	 */
+	public LossTraceChannel(LossTrace trace, double pBG, double pGB, RandomStream rng) {
+		super(pBG, pGB, rng);
+		this.trace = trace;
+		reset(); // Channel's constructor resets the channel before the trace is set
+	}
+
+	/**
+	 * Create a channel replaying a trace, with the Gilbert-Elliott model fitted to the trace
+	 * @param trace	the loss trace
+	 * @param fit	a fit of the trace
+	 * @param rng	the random stream drawing the start of each session
+	 */
+	public LossTraceChannel(LossTrace trace, LossTrace.Fit fit, RandomStream rng) {
+		this(trace, fit.getPBG(), fit.getPGB(), rng);
+	}
+
+	/**
+	 * A recorded channel cannot be biased
+	 * @throws UnsupportedOperationException
+	 */
+	public void setImportanceSampling(double qGB, double qBG) {
+		throw new UnsupportedOperationException("Importance sampling is not supported when replaying a loss trace");
+	}
+
+	/**
+	 * Move to a position of the trace, e.g. to replay the trace from its beginning
+	 * @param position	the position of the current channel state, in [0, {@link LossTrace#getNumPackets()})
+	 */
+	public void seek(long position) {
+		this.position = position;
+		isGood = trace.isGood(position);
+		log.clear();
+		if (logEnabled) log.add(isGood);
+	}
+
+	public void next() {
+		boolean isGoodBefore = isGood;
+		if (++position == trace.getNumPackets()) position = 0;
+		isGood = trace.isGood(position);
+		if (Metrics.ENABLED) countBurst(isGoodBefore);
+		if (logEnabled) log.add(isGood);
+	}
+
+	public void reset() {
+		if (trace == null) return;
+		likelihoodRatio = 1;
+		lenBurst = 1;
+		seek((long) (rng.nextDouble() * trace.getNumPackets()));
+	}
+}
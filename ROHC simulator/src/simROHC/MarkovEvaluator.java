@@ -0,0 +1,173 @@
+package simROHC;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Computes the expected summary of a session exactly, without Monte-Carlo runs, for compressors with a finite number of internal states.
+ * The joint process (compressor's node, channel state, decompressor's state) is a finite Markov chain, whose distribution is propagated packet by packet.
+ * Since the efficiency is a ratio, the distribution is also indexed by the number of bytes transmitted so far, and the expected number of payload bytes received
+ * is carried along each entry, so that E[received / transmitted] is exact.
+ * The result is the curve that {@link SummarySession} converges to, and is a reference to validate the simulator.
+ *
+ */
+public class MarkovEvaluator {
+	final SimulationParameters params;
+	/** The transition probabilities of the G-E channel */
+	final double pGB, pBG;
+
+	final int lenIR;
+	final int lenFO;
+	final int lenSO;
+
+	/** The number of decompressor states: NC, SC, FC_0, ..., FC_{W - 1}, coded as in {@link Decompressor#getStateCode()} */
+	final int nStateDecompressor;
+	/** The next decompressor's state, for each state, channel state (0 bad, 1 good) and packet type */
+	final int [][][] nextStateDecompressor;
+
+	public MarkovEvaluator(SimulationParameters params) {
+		this.params = params;
+		Channel channel = new Channel(params.eps, params.lB);
+		pGB = channel.pGB;
+		pBG = channel.pBG;
+
+		lenIR = params.lenHeaderIR + params.lenPayload;
+		lenFO = params.lenHeaderFO + params.lenPayload;
+		lenSO = params.lenHeaderSO + params.lenPayload;
+
+		nStateDecompressor = params.W + 2;
+		nextStateDecompressor = Decompressor.transitionTable(params.W);
+	}
+
+	/**
+	 * The exact expected summary of the U-mode compressor
+	 * @return the expected summary, as normalized by {@link SummarySession#normalize(int)}
+	 */
+	public SummarySession evaluateTimer() {
+		return evaluate(FiniteController.fromTimer(params.timeOutIR2SO, params.timeOutSO2FO, params.timeOutFO2SO));
+	}
+
+	/**
+	 * The exact expected summary of the POMDP compressor, when its channel estimator is perfect (pFA = pMD = 0)
+	 * @return the expected summary, as normalized by {@link SummarySession#normalize(int)}
+	 * @throws IllegalStateException if the channel estimator is not perfect
+	 */
+	public SummarySession evaluatePOMDP() {
+		if (params.pFA != 0 || params.pMD != 0) throw new IllegalStateException("The POMDP compressor has a finite number of beliefs only when pFA = pMD = 0");
+		Channel channel = new Channel(params.eps, params.lB);
+		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, params.pFA, params.pMD);
+		CompressorPOMDP compressor = new CompressorPOMDP(params.W, channel.pBG, channel.pGB, channelEstimator, params.filename);
+		return evaluate(FiniteController.fromBeliefs(compressor, 100000));
+	}
+
+	/**
+	 * The exact expected summary of a finite controller, observing the channel through the estimator of the parameters
+	 * @param controller
+	 * @return the expected summary, as normalized by {@link SummarySession#normalize(int)}
+	 */
+	public SummarySession evaluate(FiniteController controller) {
+		int nNode = controller.getNumNodes();
+		int nJoint = nNode * 2 * nStateDecompressor; // Index ((node * 2) + channel) * nStateDecompressor + decompressor
+		int [] lenPacket = {lenIR, lenFO, lenSO};
+		double [] pObsGood = {params.pMD, 1 - params.pFA}; // The probability to observe a good channel, given the channel state
+		double [] pNextGood = {pBG, 1 - pGB}; // The probability that the next channel state is good, given the current one
+
+		SummarySession summary = new SummarySession(params.N);
+
+		// For each number of bytes transmitted, the probability of each joint state (first half) and the expected number of payload bytes received in it (second half)
+		Map<Integer, double []> distribution = new HashMap<Integer, double []> ();
+		double [] initial = new double [2 * nJoint];
+		double pGood = pBG / (pGB + pBG); // The steady state of the channel, as in Channel#reset()
+		initial[(0 * 2 + 0) * nStateDecompressor] = 1 - pGood;
+		initial[(0 * 2 + 1) * nStateDecompressor] = pGood;
+		distribution.put(0, initial);
+
+		for (int n = 0; n < params.N; n++) {
+			Map<Integer, double []> distributionNext = new HashMap<Integer, double []> ();
+			double efficiency = 0;
+			for (Map.Entry<Integer, double []> entry : distribution.entrySet()) {
+				int nByteTransmitted = entry.getKey();
+				double [] dist = entry.getValue();
+				for (int idx = 0; idx < nJoint; idx++) {
+					double p = dist[idx];
+					if (p == 0) continue;
+					int d = idx % nStateDecompressor;
+					int g = (idx / nStateDecompressor) % 2;
+					int node = idx / nStateDecompressor / 2;
+					int a = controller.action[node];
+
+					int nByteTransmittedNext = nByteTransmitted + lenPacket[a];
+					double nByteReceived = dist[nJoint + idx] + (isReceived(d, g, a) ? p * params.lenPayload : 0);
+					efficiency += nByteReceived / nByteTransmittedNext;
+
+					switch (a) {
+						case 0: summary.nIR += p; break;
+						case 1: summary.nFO += p; break;
+						default: summary.nSO += p;
+					}
+					if (g == 1) summary.nG += p;
+					else summary.nB += p;
+					summary.weight[n] += p;
+
+					double [] next = distributionNext.get(nByteTransmittedNext);
+					if (next == null) {
+						next = new double [2 * nJoint];
+						distributionNext.put(nByteTransmittedNext, next);
+					}
+					int dNext = nextStateDecompressor[d][g][a];
+					for (int obs = 0; obs < 2; obs++) {
+						double pObs = (obs == 1 ? pObsGood[g] : 1 - pObsGood[g]);
+						int nodeNext = controller.next[2 * node + obs];
+						for (int gNext = 0; gNext < 2; gNext++) {
+							double pTransition = pObs * (gNext == 1 ? pNextGood[g] : 1 - pNextGood[g]);
+							if (pTransition == 0) continue;
+							int idxNext = (nodeNext * 2 + gNext) * nStateDecompressor + dNext;
+							next[idxNext] += p * pTransition;
+							next[nJoint + idxNext] += nByteReceived * pTransition;
+						}
+					}
+				}
+			}
+			summary.efficiency[n] = efficiency;
+			distribution = distributionNext;
+		}
+		return summary;
+	}
+
+	/**
+	 * Whether the payload of a packet is received, as counted by {@link SessionAccumulator}
+	 * @param d	the decompressor's state code before receiving the packet
+	 * @param g	the channel state, 1 if good
+	 * @param a	the packet type
+	 */
+	static boolean isReceived(int d, int g, int a) {
+		if (g == 0) return false;
+		switch (d) {
+			case 0: return a == 0;
+			case 1: return a <= 1;
+			default: return true;
+		}
+	}
+
+	/**
+	 * Compare the exact U-mode curve with a simulated one
+	 * @param args	the number of runs of the simulation, 5000 by default
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		int nRun = (args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+		SimulationParameters params = new SimulationParameters(8, 8, 0.2, 0.1, 0.1, 3, 10, 1, 80, 16, 4, 20, "out.policy", 200);
+
+		long timeStart = System.nanoTime();
+		SummarySession exact = new MarkovEvaluator(params).evaluateTimer();
+		long timeExact = System.nanoTime() - timeStart;
+		SummarySession simulated = new BatchTimerSimulator(params, 20151231L, 1000).run(nRun);
+
+		double maxDeviation = 0;
+		for (int n = 0; n < params.N; n++) maxDeviation = Math.max(maxDeviation, Math.abs(exact.efficiency[n] - simulated.efficiency[n]));
+		System.out.println("Exact U-mode efficiency: " + exact.efficiency[params.N - 1] + " (" + timeExact / 1000000 + " ms)");
+		System.out.println("Simulated U-mode efficiency: " + simulated.efficiency[params.N - 1] + " (" + nRun + " runs)");
+		System.out.println("Maximal deviation over the curve: " + maxDeviation);
+	}
+}
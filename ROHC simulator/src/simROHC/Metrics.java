@@ -0,0 +1,291 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Counters and histograms of the simulation hot paths: the latency of the compressors' transmit(), the entropy and the largest entry of the POMDP belief,
+ * the packet types chosen along the sessions, the transitions of the decompressors between NC, SC and FC and the time they spend in SC, and the length of the channel bursts.
+ *
+ * The metrics are recorded only when the JVM is started with -DsimROHC.metrics=true. {@link #ENABLED} is a constant, so that the JIT removes the instrumentation otherwise.
+ * Each thread records into its own {@link Recorder}, and the recorders are merged by {@link #snapshot()}.
+ * When enabled, the metrics are also emitted as JDK Flight Recorder events (see {@link MetricsEvents}) if the JVM supports them.
+ *
+ */
+public class Metrics {
+	/** Whether the metrics are recorded */
+	static final boolean ENABLED = Boolean.getBoolean("simROHC.metrics");
+	/** Whether the JDK Flight Recorder events can be emitted, i.e. jdk.jfr is present (JDK 11, or 8u272 and later) */
+	static final boolean JFR = isFlightRecorderAvailable();
+
+	/** The compressors whose transmit() is measured */
+	static final int POMDP = 0, TIMER = 1, FSC = 2;
+	static final String [] COMPRESSOR = {"POMDP", "U-mode", "FSC"};
+	/** The number of log2 bins of the packet index for the decision mix, the last one counting all the packets after it */
+	static final int N_BIN_PACKET = 16;
+
+	/**
+	 * A histogram with linear bins over [min, max), or with log2 bins: bin 0 counting the values below 1 and bin k the values in [2^(k - 1), 2^k)
+	 */
+	static class Histogram {
+		final boolean isLog;
+		final double min;
+		final double max;
+		final long [] count;
+		long n;
+		double sum;
+		double maxValue = Double.NEGATIVE_INFINITY;
+
+		Histogram(boolean isLog, double min, double max, int nBin) {
+			this.isLog = isLog;
+			this.min = min;
+			this.max = max;
+			count = new long [nBin];
+		}
+
+		/** A histogram of positive values with 64 log2 bins */
+		static Histogram log2() {
+			return new Histogram(true, 0, 0, 64);
+		}
+
+		/** A histogram with nBin linear bins over [min, max], the values out of range being counted in the first or the last bin */
+		static Histogram linear(double min, double max, int nBin) {
+			return new Histogram(false, min, max, nBin);
+		}
+
+		void add(double value) {
+			int bin;
+			if (isLog) bin = (value < 1 ? 0 : 64 - Long.numberOfLeadingZeros((long) value));
+			else bin = Math.max(0, Math.min(count.length - 1, (int) ((value - min) / (max - min) * count.length)));
+			count[Math.min(bin, count.length - 1)]++;
+			n++;
+			sum += value;
+			if (value > maxValue) maxValue = value;
+		}
+
+		void add(Histogram histogram) {
+			for (int bin = 0; bin < count.length; bin++) count[bin] += histogram.count[bin];
+			n += histogram.n;
+			sum += histogram.sum;
+			maxValue = Math.max(maxValue, histogram.maxValue);
+		}
+
+		void clear() {
+			Arrays.fill(count, 0);
+			n = 0;
+			sum = 0;
+			maxValue = Double.NEGATIVE_INFINITY;
+		}
+
+		/** The lower edge of a bin */
+		double lowerEdge(int bin) {
+			if (isLog) return (bin == 0 ? 0 : Math.pow(2, bin - 1));
+			return min + (max - min) * bin / count.length;
+		}
+
+		/**
+		 * @param q	the order of the quantile, in [0, 1]
+		 * @return the quantile, interpolated linearly within the bin where it lies
+		 */
+		double quantile(double q) {
+			double rank = q * n;
+			long nCum = 0;
+			for (int bin = 0; bin < count.length; bin++) {
+				if (count[bin] > 0 && nCum + count[bin] >= rank) {
+					double lower = lowerEdge(bin), upper = lowerEdge(bin + 1);
+					return Math.min(lower + (upper - lower) * (rank - nCum) / count[bin], maxValue);
+				}
+				nCum += count[bin];
+			}
+			return Double.NaN;
+		}
+
+		public String toString() {
+			if (n == 0) return "none";
+			return String.format("n %d, mean %.4g, p50 %.4g, p90 %.4g, p99 %.4g, max %.4g", n, sum / n, quantile(0.5), quantile(0.9), quantile(0.99), maxValue);
+		}
+	}
+
+	/**
+	 * The metrics recorded by one thread
+	 */
+	static class Recorder {
+		/** The latency of transmit(), in ns, for each compressor */
+		final Histogram [] latencyTransmit = {Histogram.log2(), Histogram.log2(), Histogram.log2()};
+		/** The entropy (bits) and the largest entry of the POMDP beliefs the decisions are taken at */
+		final Histogram entropyBelief = Histogram.linear(0, 8, 32);
+		final Histogram maxBelief = Histogram.linear(0, 1, 20);
+		/** The number of packets of each type by compressor and log2 bin of the index of the packet in the session, bin k counting the packets [2^k - 1, 2^(k + 1) - 1) */
+		final long [][][] decisions = new long [3][N_BIN_PACKET][3];
+		/** The number of transitions of the decompressors between the states, indexed as {@link Decompressor.State} */
+		final long [][] transitions = new long [3][3];
+		/** The number of packets the decompressors stay in SC each time they enter it */
+		final Histogram sojournStaticContext = Histogram.log2();
+		/** The length of the bad (index 0) and the good (index 1) bursts of the channels */
+		final Histogram [] lenBurst = {Histogram.log2(), Histogram.log2()};
+
+		void add(Recorder recorder) {
+			for (int c = 0; c < 3; c++) {
+				latencyTransmit[c].add(recorder.latencyTransmit[c]);
+				for (int bin = 0; bin < N_BIN_PACKET; bin++) {
+					for (int a = 0; a < 3; a++) decisions[c][bin][a] += recorder.decisions[c][bin][a];
+				}
+			}
+			entropyBelief.add(recorder.entropyBelief);
+			maxBelief.add(recorder.maxBelief);
+			for (int from = 0; from < 3; from++) {
+				for (int to = 0; to < 3; to++) transitions[from][to] += recorder.transitions[from][to];
+			}
+			sojournStaticContext.add(recorder.sojournStaticContext);
+			lenBurst[0].add(recorder.lenBurst[0]);
+			lenBurst[1].add(recorder.lenBurst[1]);
+		}
+
+		void clear() {
+			for (Histogram h : new Histogram [] {latencyTransmit[0], latencyTransmit[1], latencyTransmit[2], entropyBelief, maxBelief, sojournStaticContext, lenBurst[0], lenBurst[1]}) h.clear();
+			for (long [][] perCompressor : decisions) {
+				for (long [] mix : perCompressor) Arrays.fill(mix, 0);
+			}
+			for (long [] row : transitions) Arrays.fill(row, 0);
+		}
+
+		public String toString() {
+			StringBuilder output = new StringBuilder();
+			output.append("***** Metrics *****\n");
+			for (int c = 0; c < 3; c++) {
+				if (latencyTransmit[c].n == 0) continue;
+				output.append(COMPRESSOR[c] + " transmit() latency (ns): " + latencyTransmit[c] + "\n");
+				output.append(COMPRESSOR[c] + " decisions (IR/FO/SO) by packet index:");
+				for (int bin = 0; bin < N_BIN_PACKET; bin++) {
+					long [] mix = decisions[c][bin];
+					if (mix[0] + mix[1] + mix[2] == 0) continue;
+					output.append(" [" + ((1 << bin) - 1) + (bin == N_BIN_PACKET - 1 ? ", ...) " : ", " + ((2 << bin) - 1) + ") ") + mix[0] + "/" + mix[1] + "/" + mix[2]);
+				}
+				output.append("\n");
+			}
+			output.append("POMDP belief entropy (bits): " + entropyBelief + "\n");
+			output.append("POMDP largest belief entry: " + maxBelief + "\n");
+			output.append("Decompressor transitions:");
+			Decompressor.State [] states = Decompressor.State.values();
+			for (int from = 0; from < 3; from++) {
+				for (int to = 0; to < 3; to++) {
+					if (from != to) output.append(" " + states[from] + "->" + states[to] + " " + transitions[from][to]);
+				}
+			}
+			output.append("\n");
+			output.append("Decompressor packets per SC visit: " + sojournStaticContext + "\n");
+			output.append("Channel bad burst length: " + lenBurst[0] + "\n");
+			output.append("Channel good burst length: " + lenBurst[1] + "\n");
+			return new String(output);
+		}
+	}
+
+	/** The recorders of all the threads */
+	static final List<Recorder> recorders = new ArrayList<Recorder> ();
+	static final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder> () {
+		protected Recorder initialValue() {
+			Recorder recorder = new Recorder();
+			synchronized (recorders) {
+				recorders.add(recorder);
+			}
+			return recorder;
+		}
+	};
+
+	static {
+		if (ENABLED && JFR) MetricsEvents.registerPeriodic();
+	}
+
+	static boolean isFlightRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.FlightRecorder");
+			return MetricsEvents.isAvailable();
+		} catch (Throwable e) { // jdk.jfr is missing, or the JVM does not support it
+			return false;
+		}
+	}
+
+	/**
+	 * Record a packet transmitted by a compressor
+	 * @param compressor	{@link #POMDP}, {@link #TIMER} or {@link #FSC}
+	 * @param iPacket		the index of the packet since the reset of the compressor
+	 * @param typePacket	the packet type
+	 * @param latency		the duration of transmit(), in ns
+	 */
+	static void recordTransmit(int compressor, int iPacket, int typePacket, long latency) {
+		Recorder r = recorder.get();
+		r.latencyTransmit[compressor].add(latency);
+		r.decisions[compressor][Math.min(N_BIN_PACKET - 1, 31 - Integer.numberOfLeadingZeros(iPacket + 1))][typePacket]++;
+		if (JFR) MetricsEvents.transmit(compressor, iPacket, typePacket, latency);
+	}
+
+	/**
+	 * Record the belief a POMDP compressor takes its decision at
+	 * @param belief
+	 */
+	static void recordBelief(double [] belief) {
+		double entropy = 0, max = 0;
+		for (int s = 0; s < belief.length; s++) {
+			if (belief[s] > 0) entropy -= belief[s] * Math.log(belief[s]);
+			max = Math.max(max, belief[s]);
+		}
+		entropy /= Math.log(2);
+		Recorder r = recorder.get();
+		r.entropyBelief.add(entropy);
+		r.maxBelief.add(max);
+		if (JFR) MetricsEvents.belief(entropy, max);
+	}
+
+	/**
+	 * Record a transition of a decompressor between two different states
+	 * @param from			the state before the packet
+	 * @param to			the state after the packet
+	 * @param nPacketSC		the number of packets spent in SC, when leaving it
+	 */
+	static void recordTransition(Decompressor.State from, Decompressor.State to, int nPacketSC) {
+		Recorder r = recorder.get();
+		r.transitions[from.ordinal()][to.ordinal()]++;
+		if (from == Decompressor.State.SC) r.sojournStaticContext.add(nPacketSC);
+		if (JFR) MetricsEvents.transition(from, to, nPacketSC);
+	}
+
+	/**
+	 * Record a complete burst of the channel
+	 * @param isGood	whether the channel was good during the burst
+	 * @param length	the number of packets of the burst
+	 */
+	static void recordBurst(boolean isGood, long length) {
+		recorder.get().lenBurst[isGood ? 1 : 0].add(length);
+		if (JFR) MetricsEvents.burst(isGood, length);
+	}
+
+	/**
+	 * Merge the metrics of all the threads. The counters of the threads still running may be slightly behind.
+	 * @return the metrics recorded since the start or the last {@link #reset()}
+	 */
+	public static Recorder snapshot() {
+		Recorder snapshot = new Recorder();
+		synchronized (recorders) {
+			for (Recorder r : recorders) snapshot.add(r);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Forget the metrics recorded so far, e.g. between two campaigns. Should not be called while simulating.
+	 */
+	public static void reset() {
+		synchronized (recorders) {
+			for (Recorder r : recorders) r.clear();
+		}
+	}
+
+	/**
+	 * @return the report of the metrics of all the threads
+	 */
+	public static String report() {
+		return snapshot().toString();
+	}
+}
@@ -0,0 +1,207 @@
+package simROHC;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ *
+ * The JDK Flight Recorder events of the simulator, so that a running campaign can be profiled with e.g. jcmd <pid> JFR.start or -XX:StartFlightRecording.
+ * The per-session event is always emitted when a recording enables it; the per-packet events and the periodic snapshot of {@link Metrics} need -DsimROHC.metrics=true,
+ * and the per-packet events are disabled by default in the recordings as there are several per packet.
+ *
+ * This class is only loaded when {@link Metrics#JFR} is true, so that the simulator still runs on JVMs without jdk.jfr.
+ *
+ */
+class MetricsEvents {
+	@Name("simROHC.Session")
+	@Label("ROHC Session")
+	@Category("simROHC")
+	@Description("A session simulated by SessionRunner, with the POMDP and the U-mode compressors on the same channel")
+	@StackTrace(false)
+	static class SessionEvent extends Event {
+		@Label("Run")
+		long run;
+		@Label("Packets")
+		int nPacket;
+		@Label("Simulation Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long timeSimulation;
+		@Label("POMDP Efficiency")
+		double efficiencyPOMDP;
+		@Label("U-mode Efficiency")
+		double efficiencyTimer;
+		@Label("Likelihood Ratio")
+		double likelihoodRatio;
+	}
+
+	@Name("simROHC.Transmit")
+	@Label("Compressor Transmit")
+	@Category("simROHC")
+	@Enabled(false)
+	@StackTrace(false)
+	static class TransmitEvent extends Event {
+		@Label("Compressor")
+		String compressor;
+		@Label("Packet Index")
+		int iPacket;
+		@Label("Packet Type")
+		int typePacket;
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	@Name("simROHC.Belief")
+	@Label("POMDP Belief")
+	@Category("simROHC")
+	@Enabled(false)
+	@StackTrace(false)
+	static class BeliefEvent extends Event {
+		@Label("Entropy (bits)")
+		double entropy;
+		@Label("Largest Entry")
+		double max;
+	}
+
+	@Name("simROHC.DecompressorTransition")
+	@Label("Decompressor Transition")
+	@Category("simROHC")
+	@Enabled(false)
+	@StackTrace(false)
+	static class TransitionEvent extends Event {
+		@Label("From")
+		String from;
+		@Label("To")
+		String to;
+		@Label("Packets in SC")
+		int nPacketSC;
+	}
+
+	@Name("simROHC.ChannelBurst")
+	@Label("Channel Burst")
+	@Category("simROHC")
+	@Enabled(false)
+	@StackTrace(false)
+	static class BurstEvent extends Event {
+		@Label("Good")
+		boolean isGood;
+		@Label("Length")
+		long length;
+	}
+
+	@Name("simROHC.Metrics")
+	@Label("ROHC Metrics")
+	@Category("simROHC")
+	@Description("The metrics recorded by all the threads since the start")
+	@Period("1 s")
+	@StackTrace(false)
+	static class SnapshotEvent extends Event {
+		@Label("POMDP Packets")
+		long nPacketPOMDP;
+		@Label("POMDP Transmit Mean")
+		@Timespan(Timespan.NANOSECONDS)
+		long meanLatencyPOMDP;
+		@Label("POMDP Transmit p99")
+		@Timespan(Timespan.NANOSECONDS)
+		long p99LatencyPOMDP;
+		@Label("Mean Belief Entropy (bits)")
+		double meanEntropy;
+		@Label("U-mode Packets")
+		long nPacketTimer;
+		@Label("FSC Packets")
+		long nPacketFSC;
+		@Label("Transitions to NC")
+		long nToNC;
+		@Label("Transitions to FC")
+		long nToFC;
+		@Label("Mean Packets in SC")
+		double meanSojournSC;
+		@Label("Mean Bad Burst")
+		double meanBurstBad;
+	}
+
+	static boolean isAvailable() {
+		return FlightRecorder.isAvailable();
+	}
+
+	static void registerPeriodic() {
+		FlightRecorder.addPeriodicEvent(SnapshotEvent.class, new Runnable() {
+			public void run() {
+				SnapshotEvent event = new SnapshotEvent();
+				if (!event.isEnabled()) return;
+				Metrics.Recorder snapshot = Metrics.snapshot();
+				Metrics.Histogram latency = snapshot.latencyTransmit[Metrics.POMDP];
+				event.nPacketPOMDP = latency.n;
+				event.meanLatencyPOMDP = (latency.n == 0 ? 0 : (long) (latency.sum / latency.n));
+				event.p99LatencyPOMDP = (latency.n == 0 ? 0 : (long) latency.quantile(0.99));
+				event.meanEntropy = snapshot.entropyBelief.sum / snapshot.entropyBelief.n;
+				event.nPacketTimer = snapshot.latencyTransmit[Metrics.TIMER].n;
+				event.nPacketFSC = snapshot.latencyTransmit[Metrics.FSC].n;
+				event.nToNC = snapshot.transitions[1][0] + snapshot.transitions[2][0];
+				event.nToFC = snapshot.transitions[0][2] + snapshot.transitions[1][2];
+				event.meanSojournSC = snapshot.sojournStaticContext.sum / snapshot.sojournStaticContext.n;
+				event.meanBurstBad = snapshot.lenBurst[0].sum / snapshot.lenBurst[0].n;
+				event.commit();
+			}
+		});
+	}
+
+	/**
+	 * Emit the event of a session just simulated
+	 * @param timeStart	the System.nanoTime() at the start of the session
+	 */
+	static void session(long run, long timeStart, int nPacket, double efficiencyPOMDP, double efficiencyTimer, double likelihoodRatio) {
+		SessionEvent event = new SessionEvent();
+		if (!event.isEnabled()) return;
+		event.run = run;
+		event.nPacket = nPacket;
+		event.timeSimulation = System.nanoTime() - timeStart;
+		event.efficiencyPOMDP = efficiencyPOMDP;
+		event.efficiencyTimer = efficiencyTimer;
+		event.likelihoodRatio = likelihoodRatio;
+		event.commit();
+	}
+
+	static void transmit(int compressor, int iPacket, int typePacket, long latency) {
+		TransmitEvent event = new TransmitEvent();
+		if (!event.isEnabled()) return;
+		event.compressor = Metrics.COMPRESSOR[compressor];
+		event.iPacket = iPacket;
+		event.typePacket = typePacket;
+		event.latency = latency;
+		event.commit();
+	}
+
+	static void belief(double entropy, double max) {
+		BeliefEvent event = new BeliefEvent();
+		if (!event.isEnabled()) return;
+		event.entropy = entropy;
+		event.max = max;
+		event.commit();
+	}
+
+	static void transition(Decompressor.State from, Decompressor.State to, int nPacketSC) {
+		TransitionEvent event = new TransitionEvent();
+		if (!event.isEnabled()) return;
+		event.from = from.name();
+		event.to = to.name();
+		event.nPacketSC = nPacketSC;
+		event.commit();
+	}
+
+	static void burst(boolean isGood, long length) {
+		BurstEvent event = new BurstEvent();
+		if (!event.isEnabled()) return;
+		event.isGood = isGood;
+		event.length = length;
+		event.commit();
+	}
+}
@@ -0,0 +1,297 @@
+package simROHC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Runs the Monte-Carlo sessions of one configuration on a pool of threads. Each thread owns its own {@link SessionRunner}.
+ * The runs are cut into blocks of {@link #RUNS_PER_BLOCK} runs that do not depend on the number of threads, and the block summaries are merged in block order.
+ * The random streams of each run are seeded from the campaign seed and the index of the run, so the result does not depend on how many threads are used.
+ * For the same reason, a campaign can be checkpointed and resumed with the same result, see {@link #setCheckpoint(File, long)}.
+ *
+ */
+public class MonteCarloEngine {
+	/** The number of runs in one block, the unit of work handed to a thread. */
+	static final int RUNS_PER_BLOCK = 50;
+
+	final SimulationParameters params;
+	/** The number of threads simulating the runs */
+	final int nThread;
+	/** The seed of the campaign */
+	final long seed;
+	/** The recorder of the POMDP sessions' traces, if any */
+	TraceRecorder traceRecorder;
+	/** The biased transition probabilities of the channel, NaN without importance sampling */
+	double qGB = Double.NaN, qBG = Double.NaN;
+	/** The loss trace replayed by the channel and its fit, if any */
+	LossTrace lossTrace;
+	LossTrace.Fit lossTraceFit;
+	/** Whether the channel is drawn by sojourns rather than by transitions */
+	boolean isSojournSampling;
+	/** The configuration of the decision caches of the POMDP compressors, if any, and the statistics of the blocks simulated with them */
+	DecisionCache decisionCache;
+	final DecisionCache.Statistics decisionCacheStatistics = new DecisionCache.Statistics();
+	/** The checkpoint file of the campaign, if any, and the minimal time between two writes in ms */
+	File fileCheckpoint;
+	long intervalCheckpoint;
+
+	public MonteCarloEngine(SimulationParameters params, int nThread, long seed) {
+		this.params = params;
+		this.nThread = nThread;
+		this.seed = seed;
+	}
+
+	/**
+	 * Record the traces of the POMDP sessions
+	 * @param traceRecorder the recorder, or null to record nothing
+	 */
+	public void setTraceRecorder(TraceRecorder traceRecorder) {
+		this.traceRecorder = traceRecorder;
+	}
+
+	/**
+	 * Simulate the channel with importance sampling, the summaries being weighted by the likelihood ratios of the channel states
+	 * @param qGB the biased probability that channel transit from good to bad
+	 * @param qBG the biased probability that channel transit from bad to good
+	 * @throws IllegalStateException if a loss trace is replayed
+	 * @see Channel#setImportanceSampling(double, double)
+	 */
+	public void setImportanceSampling(double qGB, double qBG) {
+		if (lossTrace != null) throw new IllegalStateException("Importance sampling is not supported when replaying a loss trace");
+		this.qGB = qGB;
+		this.qBG = qBG;
+	}
+
+	/**
+	 * Replay a recorded loss trace instead of drawing the channel from params.eps and params.lB, each session starting at a random position of the trace
+	 * @param lossTrace	the loss trace, or null to draw the channel again
+	 * @param fit		a fit of the trace, whose Gilbert-Elliott model the POMDP compressor assumes; the policy should be solved for this model
+	 * @throws IllegalStateException if importance sampling is set
+	 * @see LossTraceChannel
+	 */
+	public void setLossTrace(LossTrace lossTrace, LossTrace.Fit fit) {
+		if (lossTrace != null && !Double.isNaN(qGB)) throw new IllegalStateException("Importance sampling is not supported when replaying a loss trace");
+		this.lossTrace = lossTrace;
+		this.lossTraceFit = fit;
+	}
+
+	/**
+	 * Draw the channel by sojourns, one random number per sojourn instead of one per packet.
+	 * The results have the same distribution but are not the same as with the default channel for a given seed.
+	 * @param isSojournSampling	true to draw the channel by sojourns
+	 * @see SojournChannel
+	 */
+	public void setSojournSampling(boolean isSojournSampling) {
+		this.isSojournSampling = isSojournSampling;
+	}
+
+	/**
+	 * Take the decisions of the POMDP compressors through caches, each runner owning an empty copy of the given cache.
+	 * The cache is emptied at the start of each block, so the results still only depend on the seed, whatever the number of threads.
+	 * @param decisionCache	the cache giving the configuration, or null to evaluate the policy at each packet
+	 * @see CompressorPOMDP#setDecisionCache(DecisionCache)
+	 */
+	public void setDecisionCache(DecisionCache decisionCache) {
+		this.decisionCache = decisionCache;
+	}
+
+	/**
+	 * Save the summaries of the runs merged to a checkpoint file every intervalMillis, and at the end of each wave of {@link #runUntil(double, boolean, int, int)}.
+	 * If the file exists when the simulation starts, the simulation resumes from it, the result being the same as without interruption.
+	 * The file is left when the simulation ends, a second simulation returning the same result at once; delete it to simulate again.
+	 * The traces of the runs merged before the checkpoint are not recorded again by the trace recorder.
+	 * @param fileCheckpoint	the checkpoint file, or null for no checkpoint
+	 * @param intervalMillis	the minimal time between two writes, in ms
+	 * @see Checkpoint
+	 */
+	public void setCheckpoint(File fileCheckpoint, long intervalMillis) {
+		this.fileCheckpoint = fileCheckpoint;
+		this.intervalCheckpoint = intervalMillis;
+	}
+
+	/**
+	 * @return the description of everything the summaries depend on but the number of runs, the fingerprint of the checkpoints
+	 */
+	String describe() {
+		StringBuilder description = new StringBuilder(params.toString());
+		description.append(", policy=" + params.filename + ", seed=" + seed);
+		if (!Double.isNaN(qGB)) description.append(", qGB=" + qGB + ", qBG=" + qBG);
+		if (lossTrace != null) description.append(", trace=" + lossTrace.getNumPackets() + " packets, pGB=" + lossTraceFit.getPGB() + ", pBG=" + lossTraceFit.getPBG());
+		else if (isSojournSampling) description.append(", sojourn sampling");
+		if (decisionCache != null) description.append(", cache=" + decisionCache.mode + " " + decisionCache.step + " " + decisionCache.depth + " " + decisionCache.maxEntry);
+		return new String(description);
+	}
+
+	/**
+	 * @return the statistics of the decision caches, summed over the blocks simulated so far
+	 */
+	public DecisionCache.Statistics getDecisionCacheStatistics() {
+		DecisionCache.Statistics statistics = new DecisionCache.Statistics();
+		synchronized (decisionCacheStatistics) {
+			statistics.add(decisionCacheStatistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * Create the components of a thread
+	 * @return a runner set up with the trace recorder, the importance sampling and the channel of the engine
+	 */
+	SessionRunner createRunner() {
+		SessionRunner runner = new SessionRunner(params, seed, lossTrace, lossTraceFit, isSojournSampling);
+		runner.traceRecorder = traceRecorder;
+		if (!Double.isNaN(qGB)) runner.channel.setImportanceSampling(qGB, qBG);
+		if (decisionCache != null) runner.compressorPOMDP.setDecisionCache(decisionCache.emptyCopy());
+		return runner;
+	}
+
+	/**
+	 * Simulate nRun sessions of the POMDP and the U-mode compressors.
+	 * @param nRun	number of Monte-Carlo runs
+	 * @return the normalized summaries of the POMDP and the U-mode compressors, in this order
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a thread failed to simulate its blocks
+	 * @throws IOException if the checkpoint file cannot be read or written
+	 */
+	public SummarySession [] run(int nRun) throws InterruptedException, ExecutionException, IOException {
+		Checkpoint checkpoint = Checkpoint.open(fileCheckpoint, describe() + ", run " + nRun, params.N, intervalCheckpoint);
+		checkpoint.nRunTarget = nRun;
+		runBlocks(checkpoint, checkpoint.getNumRunsMerged(), nRun);
+		if (fileCheckpoint != null) checkpoint.write();
+		return checkpoint.getSummaries(nRun);
+	}
+
+	/**
+	 * Simulate sessions of the POMDP and the U-mode compressors until the confidence intervals on the efficiency of both are narrow enough.
+	 * The runs are simulated in waves whose size doubles, the stopping rule being checked on the merged summaries at the end of each wave.
+	 * The wave boundaries are multiples of {@link #RUNS_PER_BLOCK} and only depend on the results, so the result does not depend on the number of threads either.
+	 * @param halfWidthTarget	the target half-width of the 95% confidence intervals
+	 * @param isWholeCurve		true to require the target at every packet, false only at the last packet
+	 * @param nRunMin			the number of runs of the first wave
+	 * @param nRunMax			the maximal number of runs, the simulation stops there even if the target is not met
+	 * @return the normalized summaries of the POMDP and the U-mode compressors, in this order, {@link SummarySession#nSession} being the number of runs simulated
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a thread failed to simulate its blocks
+	 * @throws IOException if the checkpoint file cannot be read or written
+	 */
+	public SummarySession [] runUntil(double halfWidthTarget, boolean isWholeCurve, int nRunMin, int nRunMax) throws InterruptedException, ExecutionException, IOException {
+		Checkpoint checkpoint = Checkpoint.open(fileCheckpoint, describe() + ", runUntil " + halfWidthTarget + " " + isWholeCurve + " " + nRunMin + " " + nRunMax, params.N, intervalCheckpoint);
+		int nRun = (checkpoint.nRunTarget > 0 ? checkpoint.nRunTarget : Math.min(nRunMax, numBlocks(Math.max(nRunMin, 2)) * RUNS_PER_BLOCK));
+		while (true) {
+			checkpoint.nRunTarget = nRun;
+			runBlocks(checkpoint, checkpoint.getNumRunsMerged(), nRun);
+			if (fileCheckpoint != null) checkpoint.write();
+			SummarySession [] summaries = checkpoint.getSummaries(nRun);
+			if (nRun == nRunMax || (halfWidth(summaries[0], isWholeCurve) <= halfWidthTarget && halfWidth(summaries[1], isWholeCurve) <= halfWidthTarget)) {
+				return summaries;
+			}
+			nRun = Math.min(nRunMax, 2 * nRun);
+		}
+	}
+
+	/**
+	 * @param summary		a merged summary
+	 * @param isWholeCurve	true for the largest half-width over the curve, false for the one at the last packet
+	 * @return the half-width of the 95% confidence interval the stopping rule is checked on
+	 */
+	static double halfWidth(SummarySession summary, boolean isWholeCurve) {
+		if (isWholeCurve) return summary.maxHalfWidth(SummarySession.Z_95);
+		return summary.halfWidth(summary.efficiency.length - 1, SummarySession.Z_95);
+	}
+
+	/**
+	 * Simulate the runs [nRunStart, nRunEnd) on the pool of threads.
+	 * @param checkpoint	the summaries merged so far, the summaries of each block being merged into it in block order
+	 * @param nRunStart		the first run, a multiple of {@link #RUNS_PER_BLOCK}
+	 * @param nRunEnd		the end of the runs, the last block may be shorter than {@link #RUNS_PER_BLOCK}
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a thread failed to simulate its blocks
+	 */
+	void runBlocks(final Checkpoint checkpoint, int nRunStart, final int nRunEnd) throws InterruptedException, ExecutionException {
+		final int nBlock = numBlocks(nRunEnd);
+		final AtomicInteger nextBlock = new AtomicInteger(nRunStart / RUNS_PER_BLOCK);
+		if (nextBlock.get() >= nBlock) return;
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThread);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>> (nThread);
+			for (int t = 0; t < nThread; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						SessionRunner runner = createRunner();
+						int iBlock;
+						while ((iBlock = nextBlock.getAndIncrement()) < nBlock) {
+							checkpoint.complete(iBlock, runBlock(runner, iBlock, nRunEnd));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) future.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @param nRun	total number of runs
+	 * @return the number of blocks needed to simulate nRun runs
+	 */
+	static int numBlocks(int nRun) {
+		return (nRun + RUNS_PER_BLOCK - 1) / RUNS_PER_BLOCK;
+	}
+
+	/**
+	 * Simulate the runs of one block. The decision cache of the runner, if any, starts empty, so that the result of a block
+	 * only depends on the seed and its index, and not on the blocks the thread simulated before.
+	 * @param runner	the components owned by the calling thread
+	 * @param iBlock	index of the block
+	 * @param nRun		total number of runs, the last block may be shorter than {@link #RUNS_PER_BLOCK}
+	 * @return the (not normalized) summaries of the POMDP and the U-mode compressors over this block
+	 */
+	SummarySession [] runBlock(SessionRunner runner, int iBlock, int nRun) {
+		SummarySession summaryPOMDP = new SummarySession(params.N);
+		SummarySession summaryTimer = new SummarySession(params.N);
+		DecisionCache cache = runner.compressorPOMDP.decisionCache;
+		if (cache != null) cache.clear();
+		int iRunEnd = Math.min(nRun, (iBlock + 1) * RUNS_PER_BLOCK);
+		for (int iRun = iBlock * RUNS_PER_BLOCK; iRun < iRunEnd; iRun++) {
+			runner.runSession(iRun, summaryPOMDP, summaryTimer);
+		}
+		if (cache != null) {
+			synchronized (decisionCacheStatistics) {
+				decisionCacheStatistics.add(cache.statistics);
+			}
+			cache.statistics.clear();
+		}
+		return new SummarySession [] {summaryPOMDP, summaryTimer};
+	}
+
+	/**
+	 * Simulate a single run of the campaign again, without simulating the runs before it.
+	 * With a decision cache, the runs of its block before it are simulated first, without recording them, to fill the cache as the campaign did.
+	 * @param iRun	index of the run
+	 * @return the summaries of the POMDP and the U-mode compressors over this run
+	 */
+	public SummarySession [] replayRun(long iRun) {
+		SummarySession summaryPOMDP = new SummarySession(params.N);
+		SummarySession summaryTimer = new SummarySession(params.N);
+		SessionRunner runner = createRunner();
+		if (decisionCache != null) {
+			runner.traceRecorder = null;
+			for (long iRunBlock = iRun - iRun % RUNS_PER_BLOCK; iRunBlock < iRun; iRunBlock++) runner.runSession(iRunBlock, new SummarySession(params.N), new SummarySession(params.N));
+			runner.traceRecorder = traceRecorder;
+		}
+		runner.runSession(iRun, summaryPOMDP, summaryTimer);
+		return new SummarySession [] {summaryPOMDP, summaryTimer};
+	}
+}
@@ -0,0 +1,397 @@
+package simROHC;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Runs a sweep over the simulation parameters. The sweep is described by a specification with one parameter per line:
+ * <pre>
+ * # Comment
+ * mode = grid                  (or list)
+ * W = 4, 8, 16                 (a list of values)
+ * eps = 0.1:0.1:0.5            (start:step:end, end included)
+ * policy = policies/W{W}_lB{lB}_eps{eps}_pFA{pFA}_pMD{pMD}.policy
+ * </pre>
+ * In grid mode, a job is simulated for each combination of the values. In list mode, the i-th job takes the i-th value of each parameter
+ * (parameters with a single value are shared by all the jobs). The parameters not specified take the values of {@link #DEFAULTS}.
+ * The {name} patterns in the policy filename are replaced by the value of the parameter of the job, so jobs with the same policy parameters share the same policy.
+ * The vectors of a policy only fit one W, so a sweep over W must have {W} in the policy filename.
+ *
+ * The runs of all the jobs are cut into blocks and executed on a work-stealing pool, the longest jobs first, so that the short jobs fill the tail.
+ * Each job is appended to the results file as soon as all its blocks are done. A job whose block fails is aborted, and appended as a single line with
+ * the compressor "failed" and empty results.
+ * With a checkpoint directory, the runs merged of each job are saved there (see {@link Checkpoint}), and a sweep started again resumes the jobs
+ * where they were. A job is skipped only once its checkpoint records that its line was appended, so a job completed but not appended before a crash
+ * is appended when the sweep resumes; a crash between the append and the write of the checkpoint appends the job twice, with the same results.
+ * A failed job is not recorded, and is simulated again.
+ *
+ */
+public class ParameterSweep {
+	/** The names of the parameters */
+	static final String [] NAMES = {"W", "lB", "eps", "pFA", "pMD", "timeOutIR2SO", "timeOutSO2FO", "timeOutFO2SO", "lenHeaderIR", "lenHeaderFO", "lenHeaderSO", "lenPayload", "N", "nRun", "seed", "policy"};
+	/** The default values of the parameters, those of {@link Simulator#main(String[])} */
+	static final String [] DEFAULTS = {"8", "8", "0.2", "0.1", "0.1", "3", "10", "1", "80", "16", "4", "20", "200", "5000", "20151231", "out.policy"};
+
+	/** Whether the values are combined as a grid (cartesian product) or as a list */
+	final boolean grid;
+	/** The values of each parameter, in the order of {@link #NAMES} */
+	final List<List<String>> values;
+
+	/**
+	 * One configuration of the sweep
+	 */
+	static class Job {
+		/** The index of the job in the expanded sweep */
+		final int index;
+		/** The value of each parameter, in the order of {@link ParameterSweep#NAMES} */
+		final String [] value;
+		final SimulationParameters params;
+		final int nRun;
+		final long seed;
+
+		Job(int index, String [] value) {
+			this.index = index;
+			this.value = value;
+			params = new SimulationParameters(Integer.parseInt(get("W")), Integer.parseInt(get("lB")), Double.parseDouble(get("eps")), Double.parseDouble(get("pFA")), Double.parseDouble(get("pMD")),
+					Integer.parseInt(get("timeOutIR2SO")), Integer.parseInt(get("timeOutSO2FO")), Integer.parseInt(get("timeOutFO2SO")),
+					Integer.parseInt(get("lenHeaderIR")), Integer.parseInt(get("lenHeaderFO")), Integer.parseInt(get("lenHeaderSO")), Integer.parseInt(get("lenPayload")),
+					get("policy"), Integer.parseInt(get("N")));
+			nRun = Integer.parseInt(get("nRun"));
+			seed = Long.parseLong(get("seed"));
+		}
+
+		String get(String name) {
+			return value[Arrays.asList(NAMES).indexOf(name)];
+		}
+
+		/** A rough estimate of the simulation time of the job */
+		double cost() {
+			return (double) nRun * params.N * (4 + params.W);
+		}
+	}
+
+	/**
+	 * Create a sweep from its specification
+	 * @param lines	the lines of the specification
+	 * @throws IllegalArgumentException if the specification is malformed
+	 */
+	public ParameterSweep(List<String> lines) {
+		boolean grid = true;
+		Map<String, List<String>> specified = new LinkedHashMap<String, List<String>> ();
+		for (String line : lines) {
+			int idxComment = line.indexOf('#');
+			if (idxComment >= 0) line = line.substring(0, idxComment);
+			line = line.trim();
+			if (line.isEmpty()) continue;
+
+			int idxEqual = line.indexOf('=');
+			if (idxEqual < 0) throw new IllegalArgumentException("Missing '=' in line: " + line);
+			String name = line.substring(0, idxEqual).trim();
+			String value = line.substring(idxEqual + 1).trim();
+			if (name.equals("mode")) {
+				if (!value.equals("grid") && !value.equals("list")) throw new IllegalArgumentException("Unknown mode: " + value);
+				grid = value.equals("grid");
+			} else if (Arrays.asList(NAMES).contains(name)) {
+				specified.put(name, parseValues(value));
+			} else {
+				throw new IllegalArgumentException("Unknown parameter: " + name);
+			}
+		}
+
+		this.grid = grid;
+		values = new ArrayList<List<String>> (NAMES.length);
+		for (int i = 0; i < NAMES.length; i++) {
+			List<String> value = specified.get(NAMES[i]);
+			values.add(value != null ? value : Collections.singletonList(DEFAULTS[i]));
+		}
+	}
+
+	/**
+	 * Parse the values of a parameter: either a comma-separated list, or a range start:step:end (end included)
+	 * @param value
+	 * @return the values as strings
+	 */
+	static List<String> parseValues(String value) {
+		List<String> parsed = new ArrayList<String> ();
+		String [] range = value.split(":");
+		if (range.length == 3) { // BigDecimal keeps 0.1:0.1:0.3 from producing 0.30000000000000004
+			BigDecimal start = new BigDecimal(range[0].trim());
+			BigDecimal step = new BigDecimal(range[1].trim());
+			BigDecimal end = new BigDecimal(range[2].trim());
+			if (step.signum() <= 0) throw new IllegalArgumentException("The step of a range must be positive: " + value);
+			for (BigDecimal v = start; v.compareTo(end) <= 0; v = v.add(step)) parsed.add(v.toPlainString());
+		} else {
+			for (String v : value.split(",")) {
+				if (!v.trim().isEmpty()) parsed.add(v.trim());
+			}
+		}
+		if (parsed.isEmpty()) throw new IllegalArgumentException("No value in: " + value);
+		return parsed;
+	}
+
+	/**
+	 * Expand the sweep into independent jobs
+	 * @return the jobs, in the order of the specification
+	 * @throws IllegalArgumentException if the lists of values do not match in list mode, a job has no run or no packet, or jobs with different W share a policy
+	 */
+	List<Job> expand() {
+		int nJob = 1;
+		for (List<String> value : values) {
+			if (grid) {
+				nJob *= value.size();
+			} else if (value.size() > 1) {
+				if (nJob > 1 && nJob != value.size()) throw new IllegalArgumentException("In list mode, all the parameters must have the same number of values or a single one");
+				nJob = value.size();
+			}
+		}
+
+		List<Job> jobs = new ArrayList<Job> (nJob);
+		for (int iJob = 0; iJob < nJob; iJob++) {
+			String [] value = new String [NAMES.length];
+			int rest = iJob;
+			for (int i = NAMES.length - 1; i >= 0; i--) { // The last parameter varies the fastest
+				List<String> v = values.get(i);
+				if (grid) {
+					value[i] = v.get(rest % v.size());
+					rest /= v.size();
+				} else {
+					value[i] = v.get(v.size() == 1 ? 0 : iJob);
+				}
+			}
+			int idxPolicy = NAMES.length - 1;
+			for (int i = 0; i < idxPolicy; i++) value[idxPolicy] = value[idxPolicy].replace("{" + NAMES[i] + "}", value[i]);
+			jobs.add(new Job(iJob, value));
+		}
+
+		Map<String, String> policyW = new LinkedHashMap<String, String> ();
+		for (Job job : jobs) {
+			if (job.nRun < 1) throw new IllegalArgumentException("Job " + job.index + " has " + job.nRun + " runs, at least 1 is needed");
+			if (job.params.N < 1) throw new IllegalArgumentException("Job " + job.index + " has sessions of " + job.params.N + " packets, at least 1 is needed");
+			String W = policyW.put(job.get("policy"), job.get("W"));
+			if (W != null && !W.equals(job.get("W"))) throw new IllegalArgumentException("The policy " + job.get("policy") + " is shared by jobs with W = " + W + " and W = " + job.get("W") + ", use {W} in the policy filename");
+		}
+		return jobs;
+	}
+
+	/**
+	 * The progress of one job
+	 */
+	class JobState {
+		final Job job;
+		final MonteCarloEngine engine;
+		/** The summaries of the blocks merged so far */
+		final Checkpoint checkpoint;
+		/** The number of blocks not done yet */
+		final AtomicInteger nBlockRemaining;
+		/** Whether a block failed, the remaining blocks being skipped */
+		final AtomicBoolean isFailed = new AtomicBoolean();
+
+		JobState(Job job) throws IOException {
+			this.job = job;
+			engine = new MonteCarloEngine(job.params, 1, job.seed);
+			File fileCheckpoint = (directoryCheckpoint == null ? null : new File(directoryCheckpoint, "job" + job.index + ".checkpoint"));
+			checkpoint = Checkpoint.open(fileCheckpoint, engine.describe() + ", run " + job.nRun, job.params.N, intervalCheckpoint);
+			checkpoint.nRunTarget = job.nRun;
+			nBlockRemaining = new AtomicInteger(MonteCarloEngine.numBlocks(job.nRun) - checkpoint.nBlockMerged);
+		}
+
+		/** Merge the summaries of a block, the thread completing the last block writes the result */
+		void complete(int iBlock, SummarySession [] summaries) {
+			checkpoint.complete(iBlock, summaries);
+			if (nBlockRemaining.decrementAndGet() == 0) append();
+		}
+
+		/** Append the result of the job, then record it in the checkpoint */
+		void append() {
+			if (!writeResult(job, checkpoint.getSummaries(job.nRun))) {
+				System.err.println("Job " + job.index + " could not be appended to the results file");
+				nFailure.incrementAndGet();
+				return;
+			}
+			try {
+				checkpoint.setDelivered();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The simulation of one block of one job
+	 */
+	class BlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final JobState state;
+		final int iBlock;
+
+		BlockTask(JobState state, int iBlock) {
+			this.state = state;
+			this.iBlock = iBlock;
+		}
+
+		protected void compute() {
+			if (state.isFailed.get()) return;
+			try {
+				SessionRunner runner = runners.get();
+				if (runner == null || runner.params != state.job.params) { // Successive blocks of the same job on a thread reuse its components
+					runner = new SessionRunner(state.job.params, state.job.seed);
+					runners.set(runner);
+				}
+				state.complete(iBlock, state.engine.runBlock(runner, iBlock, state.job.nRun));
+			} catch (RuntimeException e) {
+				if (!state.isFailed.compareAndSet(false, true)) return;
+				System.err.println("Job " + state.job.index + " (" + state.job.params + ") failed:");
+				e.printStackTrace();
+				writeFailure(state.job);
+				nFailure.incrementAndGet();
+			}
+		}
+	}
+
+	/** The runner last used by each thread */
+	private final ThreadLocal<SessionRunner> runners = new ThreadLocal<SessionRunner> ();
+	/** The number of jobs that failed */
+	private final AtomicInteger nFailure = new AtomicInteger();
+	/** The results file */
+	private PrintWriter output;
+	/** The directory of the checkpoints of the jobs, if any, and the minimal time between two writes of a checkpoint in ms */
+	private File directoryCheckpoint;
+	private long intervalCheckpoint;
+
+	/**
+	 * Save the runs merged of each job to a checkpoint file in a directory, from which a sweep started again resumes
+	 * @param directoryCheckpoint	the directory, created if needed, or null for no checkpoint
+	 * @param intervalMillis		the minimal time between two writes of the checkpoint of a job, in ms
+	 */
+	public void setCheckpoint(File directoryCheckpoint, long intervalMillis) {
+		this.directoryCheckpoint = directoryCheckpoint;
+		this.intervalCheckpoint = intervalMillis;
+		if (directoryCheckpoint != null) directoryCheckpoint.mkdirs();
+	}
+
+	/**
+	 * Run all the jobs of the sweep and append their results to a CSV file, one line per job and compressor.
+	 * @param fileResult	the results file, its header is written if it is empty
+	 * @param nThread		the number of threads
+	 * @return the number of jobs that failed
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int run(File fileResult, int nThread) throws IOException, InterruptedException {
+		List<Job> jobs = new ArrayList<Job> (expand());
+		Collections.sort(jobs, new Comparator<Job>() { // Longest jobs first
+			public int compare(Job j1, Job j2) {
+				return Double.compare(j2.cost(), j1.cost());
+			}
+		});
+
+		boolean isNew = !fileResult.exists() || fileResult.length() == 0;
+		output = new PrintWriter(new FileWriter(fileResult, true));
+		try {
+			if (isNew) writeHeader();
+
+			ForkJoinPool pool = new ForkJoinPool(nThread);
+			for (Job job : jobs) {
+				JobState state = new JobState(job);
+				if (state.checkpoint.isDelivered) {
+					System.out.println("Job " + job.index + " already appended");
+					continue;
+				}
+				if (state.nBlockRemaining.get() == 0) { // Simulated but not appended before a crash
+					state.append();
+					continue;
+				}
+				for (int iBlock = state.checkpoint.nBlockMerged; iBlock < MonteCarloEngine.numBlocks(job.nRun); iBlock++) pool.execute(new BlockTask(state, iBlock));
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		} finally {
+			output.close();
+		}
+		return nFailure.get();
+	}
+
+	private void writeHeader() {
+		StringBuilder line = new StringBuilder("job");
+		for (String name : NAMES) line.append(',').append(name);
+		line.append(",compressor,nIR,nFO,nSO,nG,nB,efficiency,curve");
+		output.println(line);
+		output.flush();
+	}
+
+	/**
+	 * Append the results of a job: its parameters, the counters, the final efficiency and the whole efficiency curve (space-separated)
+	 * @param job
+	 * @param summaries	the normalized summaries of the POMDP and the U-mode compressors
+	 * @return false if the results file could not be written
+	 */
+	synchronized boolean writeResult(Job job, SummarySession [] summaries) {
+		String [] compressorNames = {"POMDP", "U-mode"};
+		for (int i = 0; i < summaries.length; i++) {
+			SummarySession summary = summaries[i];
+			StringBuilder line = new StringBuilder();
+			line.append(job.index);
+			for (String value : job.value) line.append(',').append(value);
+			line.append(',').append(compressorNames[i]);
+			line.append(',').append(summary.nIR).append(',').append(summary.nFO).append(',').append(summary.nSO);
+			line.append(',').append(summary.nG).append(',').append(summary.nB);
+			line.append(',').append(summary.efficiency[summary.efficiency.length - 1]);
+			line.append(',');
+			for (int iPacket = 0; iPacket < summary.efficiency.length; iPacket++) {
+				if (iPacket > 0) line.append(' ');
+				line.append(summary.efficiency[iPacket]);
+			}
+			output.println(line);
+		}
+		output.flush();
+		return !output.checkError();
+	}
+
+	/**
+	 * Append the line of a job aborted after the failure of a block: its parameters, the compressor "failed" and empty results
+	 * @param job
+	 */
+	synchronized void writeFailure(Job job) {
+		StringBuilder line = new StringBuilder();
+		line.append(job.index);
+		for (String value : job.value) line.append(',').append(value);
+		line.append(",failed,,,,,,,");
+		output.println(line);
+		output.flush();
+	}
+
+	/**
+	 * Run a sweep
+	 * @param args	the specification file, the results file, optionally the number of threads and the checkpoint directory
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ParameterSweep <specification> <results.csv> [nThread] [checkpointDirectory]");
+			System.exit(1);
+		}
+		int nThread = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+		ParameterSweep sweep = new ParameterSweep(Files.readAllLines(new File(args[0]).toPath(), StandardCharsets.UTF_8));
+		if (args.length > 3) sweep.setCheckpoint(new File(args[3]), 60000);
+		int nFailure = sweep.run(new File(args[1]), nThread);
+		System.out.println(nFailure == 0 ? "Sweep completed" : "Sweep completed, " + nFailure + " jobs failed");
+	}
+}
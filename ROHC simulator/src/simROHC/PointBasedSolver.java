@@ -0,0 +1,291 @@
+package simROHC;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * A point-based value iteration solver (PBVI) for the POMDP model of {@link CompressorPOMDP}, replacing the gen_pomdpx.py / pomdpsol pipeline.
+ * It works directly on the transition and observation functions of the compressor, the reward being the one of gen_pomdpx.py:
+ * len_payload / len_a when the next state is FC_0, 0 otherwise.
+ *
+ * The value function is backed up at a fixed set of beliefs, reached from the initial belief by random exploration.
+ * The backups of the beliefs are independent and run in parallel; a backup is only kept when it improves the value at its belief (as in Perseus),
+ * so the value function increases monotonically from the zero vector.
+ *
+ */
+public class PointBasedSolver {
+	/** The discount factor of gen_pomdpx.py */
+	static final double GAMMA = 0.95;
+	/** The number of actions (IR, FO, SO) and of observations (bad, good) */
+	static final int N_ACTION = 3, N_OBS = 2;
+
+	/** The compressor whose model is solved */
+	final CompressorPOMDP model;
+	/** The number of states, 4 + W */
+	final int nState;
+	/** The discount factor */
+	final double gamma;
+	/** The expected immediate reward of each action from each state, reward[a][s] = T_a(s, FC_0) * len_payload / len_a */
+	final double [][] reward;
+	/** The number of threads backing up the beliefs */
+	final int nThread;
+
+	/**
+	 * Create a solver
+	 * @param model		the compressor whose model is solved, its policy is not used
+	 * @param gamma		the discount factor
+	 * @param lenHeaderIR
+	 * @param lenHeaderFO
+	 * @param lenHeaderSO
+	 * @param lenPayload
+	 * @param nThread	the number of threads backing up the beliefs
+	 */
+	public PointBasedSolver(CompressorPOMDP model, double gamma, int lenHeaderIR, int lenHeaderFO, int lenHeaderSO, int lenPayload, int nThread) {
+		this.model = model;
+		this.nState = 4 + model.W;
+		this.gamma = gamma;
+		this.nThread = nThread;
+
+		int [] lenPacket = {lenHeaderIR + lenPayload, lenHeaderFO + lenPayload, lenHeaderSO + lenPayload};
+		reward = new double [N_ACTION][nState];
+		for (int a = 0; a < N_ACTION; a++) {
+			for (int s = 0; s < nState; s++) reward[a][s] = model.funcTransition[a].get(s, 4) * lenPayload / lenPacket[a];
+		}
+	}
+
+	/**
+	 * Sample the beliefs to back up, by following random actions and observations from the initial belief
+	 * @param nBelief		the number of distinct beliefs to sample
+	 * @param lenEpisode	the number of steps before going back to the initial belief
+	 * @param seed			the seed of the exploration
+	 * @return the beliefs, fewer than nBelief if fewer are reachable
+	 */
+	public List<double []> sampleBeliefs(int nBelief, int lenEpisode, long seed) {
+		Xoroshiro128Plus rng = new Xoroshiro128Plus(seed);
+		model.reset();
+		double [] beliefInit = model.belief.data.clone();
+
+		List<double []> beliefs = new ArrayList<double []> ();
+		Map<FiniteController.BeliefKey, Integer> visited = new HashMap<FiniteController.BeliefKey, Integer> ();
+		beliefs.add(beliefInit);
+		visited.put(new FiniteController.BeliefKey(beliefInit), 0);
+
+		double [] belief = beliefInit;
+		long maxStepIdle = 100L * lenEpisode; // Stop when the reachable beliefs seem exhausted
+		long nStepIdle = 0;
+		for (long step = 0; beliefs.size() < nBelief && nStepIdle < maxStepIdle; step++) {
+			if (step % lenEpisode == 0) belief = beliefInit;
+			int typePacket = (int) (rng.nextDouble() * N_ACTION);
+			double [] beliefNext = new double [nState];
+			double pBad = model.updateBelief(belief, typePacket, false, beliefNext);
+			if (rng.nextDouble() >= pBad) model.updateBelief(belief, typePacket, true, beliefNext);
+
+			FiniteController.BeliefKey key = new FiniteController.BeliefKey(beliefNext);
+			if (!visited.containsKey(key)) {
+				visited.put(key, beliefs.size());
+				beliefs.add(beliefNext);
+				nStepIdle = 0;
+			} else {
+				nStepIdle++;
+			}
+			belief = beliefNext;
+		}
+		return beliefs;
+	}
+
+	/**
+	 * Compute a policy by backing up the value function at the given beliefs until it converges
+	 * @param beliefs		the beliefs to back up
+	 * @param tolerance		the iterations stop when the value at no belief increases by more than this
+	 * @param maxIteration	the maximal number of iterations
+	 * @return the policy, with at most one vector per belief
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a thread failed to back up its beliefs
+	 */
+	public AlphaVectorPolicy solve(final List<double []> beliefs, double tolerance, int maxIteration) throws InterruptedException, ExecutionException {
+		final int nBelief = beliefs.size();
+		// The rewards are non-negative, so the zero vector is a lower bound of the value function
+		AlphaVectorPolicy policy = new AlphaVectorPolicy(nState, new double [nState], new int [] {0});
+
+		final double [] valueCurrent = new double [nBelief]; // The value of the current policy at each belief
+		final double [] valueNew = new double [nBelief];
+		final double [][] alphaNew = new double [nBelief][]; // The new vector of each belief, null to keep the vector of the current policy
+		final int [] actionNew = new int [nBelief];
+		final int [] vectorKept = new int [nBelief];
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThread);
+		try {
+			for (int iteration = 0; iteration < maxIteration; iteration++) {
+				final AlphaVectorPolicy policyCurrent = policy;
+				final double [][][] projection = project(policyCurrent);
+
+				// Back up the beliefs in parallel, each thread taking an interleaved share of them
+				List<Future<Void>> futures = new ArrayList<Future<Void>> (nThread);
+				for (int t = 0; t < nThread; t++) {
+					final int tStart = t;
+					futures.add(executor.submit(new Callable<Void>() {
+						public Void call() {
+							double [] alpha = new double [nState];
+							for (int b = tStart; b < nBelief; b += nThread) {
+								double [] belief = beliefs.get(b);
+								int p = policyCurrent.bestVector(belief);
+								valueCurrent[b] = policyCurrent.dot(belief, p);
+								int typePacket = backup(belief, policyCurrent, projection, alpha);
+								double v = dot(belief, alpha, 0);
+								if (v > valueCurrent[b]) {
+									alphaNew[b] = alpha.clone();
+									actionNew[b] = typePacket;
+									valueNew[b] = v;
+								} else { // Keep the best vector of the current policy
+									alphaNew[b] = null;
+									vectorKept[b] = p;
+									valueNew[b] = valueCurrent[b];
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : futures) future.get();
+
+				// Gather the distinct vectors, in belief order
+				Map<FiniteController.BeliefKey, Integer> vectors = new HashMap<FiniteController.BeliefKey, Integer> ();
+				List<double []> alphas = new ArrayList<double []> ();
+				List<Integer> actions = new ArrayList<Integer> ();
+				double residual = 0;
+				for (int b = 0; b < nBelief; b++) {
+					double [] alpha = alphaNew[b];
+					int typePacket = actionNew[b];
+					if (alpha == null) {
+						int p = vectorKept[b];
+						alpha = new double [nState];
+						System.arraycopy(policyCurrent.alpha, p * nState, alpha, 0, nState);
+						typePacket = policyCurrent.action[p];
+					}
+					FiniteController.BeliefKey key = new FiniteController.BeliefKey(alpha);
+					if (!vectors.containsKey(key)) {
+						vectors.put(key, alphas.size());
+						alphas.add(alpha);
+						actions.add(typePacket);
+					}
+					residual = Math.max(residual, valueNew[b] - valueCurrent[b]);
+				}
+
+				double [] alphaMatrix = new double [alphas.size() * nState];
+				for (int p = 0; p < alphas.size(); p++) System.arraycopy(alphas.get(p), 0, alphaMatrix, p * nState, nState);
+				policy = new AlphaVectorPolicy(nState, alphaMatrix, FiniteController.toArray(actions));
+				if (residual < tolerance) break;
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return policy;
+	}
+
+	/**
+	 * Project each vector of a policy back through each action and observation: g[a][o][i](s) = gamma * sum_{s'} T_a(s, s') O_o(s') alpha_i(s')
+	 * @param policy	the current policy
+	 * @return the projections, g[a][o] being a row-major matrix of policy.nVector vectors
+	 */
+	double [][][] project(AlphaVectorPolicy policy) {
+		double [][][] projection = new double [N_ACTION][N_OBS][policy.nVector * nState];
+		double [] weighted = new double [nState];
+		double [] expected = new double [nState];
+		for (int o = 0; o < N_OBS; o++) {
+			double [] obs = model.funcObservation[o].data;
+			for (int i = 0; i < policy.nVector; i++) {
+				for (int s = 0; s < nState; s++) weighted[s] = obs[s] * policy.alpha[i * nState + s];
+				for (int a = 0; a < N_ACTION; a++) {
+					model.sparseTransition[a].rightMultiply(weighted, expected);
+					for (int s = 0; s < nState; s++) projection[a][o][i * nState + s] = gamma * expected[s];
+				}
+			}
+		}
+		return projection;
+	}
+
+	/**
+	 * Back up the value function at a belief
+	 * @param belief		the belief
+	 * @param policy		the current policy
+	 * @param projection	the projections of the current policy
+	 * @param alpha			the buffer receiving the best new vector at the belief
+	 * @return the action of the new vector
+	 */
+	int backup(double [] belief, AlphaVectorPolicy policy, double [][][] projection, double [] alpha) {
+		double [] alphaAction = new double [nState];
+		double maxValue = Double.NEGATIVE_INFINITY;
+		int best = 0;
+		for (int a = 0; a < N_ACTION; a++) {
+			System.arraycopy(reward[a], 0, alphaAction, 0, nState);
+			for (int o = 0; o < N_OBS; o++) {
+				double [] g = projection[a][o];
+				int iBest = 0;
+				double gBest = dot(belief, g, 0);
+				for (int i = 1; i < policy.nVector; i++) {
+					double v = dot(belief, g, i * nState);
+					if (v > gBest) {
+						gBest = v;
+						iBest = i;
+					}
+				}
+				for (int s = 0; s < nState; s++) alphaAction[s] += g[iBest * nState + s];
+			}
+			double v = dot(belief, alphaAction, 0);
+			if (v > maxValue) {
+				maxValue = v;
+				best = a;
+				System.arraycopy(alphaAction, 0, alpha, 0, nState);
+			}
+		}
+		return best;
+	}
+
+	/** The dot product of a belief and the vector at a given offset of a matrix */
+	double dot(double [] belief, double [] matrix, int offset) {
+		double sum = 0;
+		for (int s = 0; s < nState; s++) sum += belief[s] * matrix[offset + s];
+		return sum;
+	}
+
+	/**
+	 * Solve the model of gen_pomdpx.py and write the policy as a .policy file, in place of pomdpsol
+	 * @param args	the .policy file to write, out.policy by default
+	 * @throws Exception
+	 */
+	public static void main(String [] args) throws Exception {
+		String filename = (args.length > 0 ? args[0] : "out.policy");
+		int W = 8; // Capability of the WLSB coding
+		int lB = 8; // Average duration of a sequence of consecutive bad states
+		double eps = 0.2; // Average deletion probability
+		double pFA = 0.1; // False alarm probability
+		double pMD = 0.1; // Miss detection probability
+
+		int lenHeaderIR = 80;
+		int lenHeaderFO = 16;
+		int lenHeaderSO = 4;
+		int lenPayload = 20;
+
+		int nThread = Runtime.getRuntime().availableProcessors();
+
+		Channel channel = new Channel(eps, lB);
+		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, pFA, pMD);
+		CompressorPOMDP model = new CompressorPOMDP(W, channel.pBG, channel.pGB, channelEstimator, (AlphaVectorPolicy) null);
+
+		long timeStart = System.nanoTime();
+		PointBasedSolver solver = new PointBasedSolver(model, GAMMA, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload, nThread);
+		List<double []> beliefs = solver.sampleBeliefs(1000, 100, 20151231L);
+		AlphaVectorPolicy policy = solver.solve(beliefs, 1e-6, 1000);
+		System.out.println(policy.nVector + " vectors from " + beliefs.size() + " beliefs in " + (System.nanoTime() - timeStart) / 1000000 + " ms");
+
+		PolicyCache.writeXml(policy, filename);
+	}
+}
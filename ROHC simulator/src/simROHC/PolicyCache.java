@@ -0,0 +1,246 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ *
+ * Loads the .policy files produced by pomdpsol (or written by {@link #writeXml(AlphaVectorPolicy, String)}) and shares the parsed policies among all the compressors of the JVM.
+ * The first time a .policy file is read, it is parsed with a streaming (StAX) parser and compiled into a binary file next to it (with the extension {@link #EXTENSION}).
+ * Later loads memory-map the binary file as long as the .policy file keeps the same size and modification time.
+ *
+ * The binary format is, in big-endian order: the magic number {@link #MAGIC}, the size and the modification time of the .policy file (2 longs),
+ * the number of vectors and their length (2 ints), the action of each vector (ints) and the vectors (doubles, row-major).
+ *
+ */
+public class PolicyCache {
+	/** The magic number at the beginning of a compiled policy file ("ROHCPOL1") */
+	static final long MAGIC = 0x524F4843504F4C31L;
+	/** The extension appended to the name of the .policy file to name the compiled policy file */
+	static final String EXTENSION = ".bin";
+	/** The size of the header of a compiled policy file, in bytes */
+	static final int HEADER_SIZE = 8 + 8 + 8 + 4 + 4;
+
+	/** The policies already loaded, indexed by the canonical path of the .policy file */
+	private static final Map<String, AlphaVectorPolicy> policies = new HashMap<String, AlphaVectorPolicy> ();
+
+	/**
+	 * Get the policy of a .policy file, parsing or mapping it only the first time it is requested in the JVM
+	 * @param filename	the .policy file
+	 * @return the policy, shared with the other callers
+	 * @throws IOException
+	 * @throws XMLStreamException if the .policy file is malformed
+	 */
+	public static synchronized AlphaVectorPolicy load(String filename) throws IOException, XMLStreamException {
+		File filePolicy = new File(filename);
+		String key = filePolicy.getCanonicalPath();
+		AlphaVectorPolicy policy = policies.get(key);
+		if (policy == null) {
+			File fileCompiled = new File(filePolicy.getPath() + EXTENSION);
+			policy = readCompiled(fileCompiled, filePolicy);
+			if (policy == null) {
+				policy = parseXml(filePolicy);
+				try {
+					writeCompiled(policy, fileCompiled, filePolicy);
+				} catch (IOException e) { // The compiled file only saves time, the policy is still usable
+					System.err.println("Cannot write the compiled policy " + fileCompiled + ": " + e.getMessage());
+				}
+			}
+			policies.put(key, policy);
+		}
+		return policy;
+	}
+
+	/**
+	 * Write a policy as a .policy file in the format of pomdpsol, and forget the policy previously loaded from this file, if any
+	 * @param policy	the policy, e.g. computed by {@link PointBasedSolver}
+	 * @param filename	the .policy file
+	 * @throws IOException
+	 */
+	public static synchronized void writeXml(AlphaVectorPolicy policy, String filename) throws IOException {
+		File filePolicy = new File(filename);
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filePolicy), "ISO-8859-1")));
+		try {
+			writer.println("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>");
+			writer.println("<Policy version=\"0.1\" type=\"value\" model=\"ROHC\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:noNamespaceSchemaLocation=\"policyx.xsd\">");
+			writer.println("<AlphaVector vectorLength=\"" + policy.nState + "\" numObsValue=\"1\" numVectors=\"" + policy.nVector + "\">");
+			for (int p = 0; p < policy.nVector; p++) {
+				writer.print("<Vector action=\"" + policy.action[p] + "\" obsValue=\"0\">");
+				for (int s = 0; s < policy.nState; s++) writer.print(policy.alpha[p * policy.nState + s] + " ");
+				writer.println("</Vector>");
+			}
+			writer.println("</AlphaVector>");
+			writer.println("</Policy>");
+		} finally {
+			writer.close();
+		}
+		if (writer.checkError()) throw new IOException("Cannot write " + filePolicy);
+		policies.remove(filePolicy.getCanonicalPath());
+	}
+
+	/**
+	 * Parse a .policy file with a streaming parser, without building its DOM
+	 * @param filePolicy	the .policy file
+	 * @return the policy
+	 * @throws IOException
+	 * @throws XMLStreamException if the file is malformed
+	 */
+	static AlphaVectorPolicy parseXml(File filePolicy) throws IOException, XMLStreamException {
+		InputStream input = new BufferedInputStream(new FileInputStream(filePolicy));
+		XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+		try {
+			int nState = -1;
+			int nVector = 0;
+			double [] alpha = new double [0];
+			int [] action = new int [16];
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				String name = reader.getLocalName();
+				if (name.equals("AlphaVector")) { // Preallocate with the sizes announced by pomdpsol, if any
+					String numVectors = reader.getAttributeValue(null, "numVectors");
+					String vectorLength = reader.getAttributeValue(null, "vectorLength");
+					if (numVectors != null) action = new int [Math.max(1, Integer.parseInt(numVectors.trim()))];
+					if (vectorLength != null) {
+						nState = Integer.parseInt(vectorLength.trim());
+						alpha = new double [action.length * nState];
+					}
+				} else if (name.equals("Vector")) {
+					if (nVector == action.length) action = Arrays.copyOf(action, 2 * nVector);
+					action[nVector] = Integer.parseInt(reader.getAttributeValue(null, "action").trim());
+
+					String text = reader.getElementText();
+					if (nState < 0) nState = countTokens(text);
+					if (alpha.length < action.length * nState) alpha = Arrays.copyOf(alpha, action.length * nState);
+					int nValue = parseTokens(text, alpha, nVector * nState, nState);
+					if (nValue != nState) throw new XMLStreamException("Vector " + nVector + " of " + filePolicy + " has " + nValue + " entries instead of " + nState);
+					nVector++;
+				}
+			}
+			if (nState < 0) throw new XMLStreamException(filePolicy + " does not contain any vector");
+			return new AlphaVectorPolicy(nState, Arrays.copyOf(alpha, nVector * nState), Arrays.copyOf(action, nVector));
+		} finally {
+			reader.close();
+			input.close();
+		}
+	}
+
+	/** Count the whitespace-separated tokens of a string */
+	private static int countTokens(String text) {
+		int n = 0;
+		boolean inToken = false;
+		for (int i = 0; i < text.length(); i++) {
+			boolean isSpace = Character.isWhitespace(text.charAt(i));
+			if (!isSpace && !inToken) n++;
+			inToken = !isSpace;
+		}
+		return n;
+	}
+
+	/**
+	 * Parse the whitespace-separated numbers of a string into an array
+	 * @param text		the string to parse
+	 * @param out		the array receiving the numbers
+	 * @param offset	the index of the first number in out
+	 * @param nMax		the maximal number of numbers to store
+	 * @return the number of tokens in the string
+	 */
+	private static int parseTokens(String text, double [] out, int offset, int nMax) {
+		int n = 0;
+		int i = 0;
+		int length = text.length();
+		while (i < length) {
+			while (i < length && Character.isWhitespace(text.charAt(i))) i++;
+			int start = i;
+			while (i < length && !Character.isWhitespace(text.charAt(i))) i++;
+			if (i > start) {
+				if (n < nMax) out[offset + n] = Double.parseDouble(text.substring(start, i));
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Write a compiled policy file. The file is first written under a temporary name, then renamed.
+	 * @param policy		the policy
+	 * @param fileCompiled	the compiled policy file
+	 * @param filePolicy	the .policy file the policy was parsed from
+	 * @throws IOException
+	 */
+	static void writeCompiled(AlphaVectorPolicy policy, File fileCompiled, File filePolicy) throws IOException {
+		File fileTmp = new File(fileCompiled.getPath() + ".tmp");
+		long size = HEADER_SIZE + 4L * policy.nVector + 8L * policy.alpha.length;
+		RandomAccessFile file = new RandomAccessFile(fileTmp, "rw");
+		try {
+			file.setLength(size);
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putLong(MAGIC);
+			buffer.putLong(filePolicy.length());
+			buffer.putLong(filePolicy.lastModified());
+			buffer.putInt(policy.nVector);
+			buffer.putInt(policy.nState);
+			buffer.asIntBuffer().put(policy.action);
+			buffer.position(buffer.position() + 4 * policy.nVector);
+			buffer.asDoubleBuffer().put(policy.alpha);
+			buffer.force();
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(fileTmp.toPath(), fileCompiled.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(fileTmp.toPath(), fileCompiled.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Read a compiled policy file through a read-only memory mapping
+	 * @param fileCompiled	the compiled policy file
+	 * @param filePolicy	the .policy file it was compiled from
+	 * @return the policy, or null if the compiled file is missing, corrupted or older than the .policy file
+	 * @throws IOException
+	 */
+	static AlphaVectorPolicy readCompiled(File fileCompiled, File filePolicy) throws IOException {
+		if (!fileCompiled.isFile() || fileCompiled.length() < HEADER_SIZE) return null;
+		RandomAccessFile file = new RandomAccessFile(fileCompiled, "r");
+		try {
+			ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (buffer.getLong() != MAGIC) return null;
+			if (buffer.getLong() != filePolicy.length() || buffer.getLong() != filePolicy.lastModified()) return null;
+			int nVector = buffer.getInt();
+			int nState = buffer.getInt();
+			if (nVector < 0 || nState < 0 || file.length() != HEADER_SIZE + 4L * nVector + 8L * nVector * nState) return null;
+
+			int [] action = new int [nVector];
+			buffer.asIntBuffer().get(action);
+			buffer.position(buffer.position() + 4 * nVector);
+			double [] alpha = new double [nVector * nState];
+			buffer.asDoubleBuffer().get(alpha);
+			return new AlphaVectorPolicy(nState, alpha, action);
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package simROHC;
+
+/**
+ *
+ * A source of uniform random numbers owned by a single simulation component (the channel, the channel estimator...).
+ * Implementations are not thread-safe, each thread uses its own streams.
+ *
+ */
+public interface RandomStream {
+	/**
+	 * Draw the next uniform random number
+	 * @return a double uniformly distributed in [0, 1)
+	 */
+	public double nextDouble();
+}
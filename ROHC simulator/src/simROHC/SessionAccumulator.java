@@ -0,0 +1,100 @@
+package simROHC;
+
+/**
+ *
+ * Accumulates the summary of ROHC sessions packet by packet, as the decompressor receives them, instead of walking the logs at the end of each session.
+ * It computes the same counters and cumulative efficiency as {@link SummarySession#SummarySession(java.util.List, java.util.List, java.util.List, int, int, int, int)}
+ * and adds them directly to a cumulative summary, without allocating anything.
+ *
+ * @see Decompressor#setAccumulator(SessionAccumulator)
+ */
+public class SessionAccumulator {
+	final int lenIR;
+	final int lenFO;
+	final int lenSO;
+	final int lenPayload;
+
+	/** The channel whose likelihood ratio weights each packet, if any */
+	Channel channel;
+	/** The cumulative summary the current session is added to */
+	SummarySession summary;
+	/** 1 / the number of sessions in the cumulative summary, the current one included */
+	double inverseSession;
+	/** The index of the next packet in the current session */
+	int iPacket;
+	/** The cumulative number of bytes transmitted in the current session */
+	int nByteTransmitted;
+	/** The cumulative number of payload bytes received in the current session */
+	int nByteReceived;
+
+	public SessionAccumulator(int lenHeaderIR, int lenHeaderFO, int lenHeaderSO, int lenPayload) {
+		this.lenIR = lenHeaderIR + lenPayload;
+		this.lenFO = lenHeaderFO + lenPayload;
+		this.lenSO = lenHeaderSO + lenPayload;
+		this.lenPayload = lenPayload;
+	}
+
+	/**
+	 * Weight each packet by the likelihood ratio of the channel states drawn so far, for the channels simulated with importance sampling
+	 * @param channel the channel, or null to give all the packets the weight 1
+	 * @see Channel#setImportanceSampling(double, double)
+	 */
+	public void setChannel(Channel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Start a new session
+	 * @param summary the cumulative summary the session is added to
+	 */
+	public void begin(SummarySession summary) {
+		this.summary = summary;
+		summary.nSession++;
+		inverseSession = 1.0 / summary.nSession;
+		iPacket = 0;
+		nByteTransmitted = 0;
+		nByteReceived = 0;
+	}
+
+	/**
+	 * Account for one packet of the current session
+	 * @param channelState	whether the ROHC channel is good or not when the packet is transmitted
+	 * @param typePacket	take value from 0, 1, 2 representing IR, FO, SO packets respectively
+	 * @param state			the decompressor's state before receiving the packet
+	 */
+	void next(boolean channelState, int typePacket, Decompressor.State state) {
+		// The packet only depends on the channel states drawn so far, so it is weighted by their likelihood ratio rather than the one of the whole session
+		double weight = (channel == null ? 1 : channel.likelihoodRatio);
+		switch (typePacket) {
+			case 0: summary.nIR += weight; nByteTransmitted += lenIR; break;
+			case 1: summary.nFO += weight; nByteTransmitted += lenFO; break;
+			default: summary.nSO += weight; nByteTransmitted += lenSO;
+		}
+
+		if (channelState) {
+			summary.nG += weight;
+			switch (state) {
+				case NC: {
+					if (typePacket == 0) {
+						nByteReceived += lenPayload;
+					}
+					break;
+				}
+				case SC: {
+					if (typePacket <= 1) {
+						nByteReceived += lenPayload;
+					}
+					break;
+				}
+				default: {
+					nByteReceived += lenPayload;
+				}
+			}
+		} else {
+			summary.nB += weight;
+		}
+		summary.weight[iPacket] += weight;
+		summary.addEfficiency(iPacket, weight * nByteReceived / nByteTransmitted, inverseSession);
+		iPacket++;
+	}
+}
@@ -0,0 +1,123 @@
+package simROHC;
+
+/**
+ *
+ * The components needed to simulate ROHC sessions of one configuration: a channel, a channel estimator, the POMDP and the U-mode compressors and their decompressors.
+ * A runner is owned by a single thread at a time.
+ *
+ */
+class SessionRunner {
+	final SimulationParameters params;
+	/** The seed of the campaign, from which the seed of each run is derived */
+	final long seed;
+
+	/** The random stream of the channel */
+	final Xoroshiro128Plus rngChannel;
+	/** The random stream of the channel estimator, 2^64 draws ahead of the channel's one */
+	final Xoroshiro128Plus rngEstimator;
+
+	final Channel channel;
+	final CompressorPOMDP.ChannelEstimator channelEstimator;
+	final CompressorPOMDP compressorPOMDP;
+	final Decompressor decompressorPOMDP;
+	final CompressorTimer compressorTimer;
+	final Decompressor decompressorTimer;
+
+	/** The accumulators fed by the decompressors */
+	final SessionAccumulator accumulatorPOMDP;
+	final SessionAccumulator accumulatorTimer;
+
+	/** The recorder of the POMDP sessions' traces, if any */
+	TraceRecorder traceRecorder;
+	/** The belief of the POMDP compressor before transmitting the current packet, copied only when the session is recorded */
+	final double [] beliefCurrent;
+
+	SessionRunner(SimulationParameters params, long seed) {
+		this(params, seed, null, null, false);
+	}
+
+	/**
+	 * @param params			the parameters of the sessions
+	 * @param seed				the seed of the campaign
+	 * @param trace				the loss trace the channel replays, or null to draw the channel from params.eps and params.lB
+	 * @param fit				the fit of the trace giving the model of the POMDP compressor, ignored without trace
+	 * @param isSojournSampling	true to draw the channel by sojourns ({@link SojournChannel}), ignored with a trace
+	 */
+	SessionRunner(SimulationParameters params, long seed, LossTrace trace, LossTrace.Fit fit, boolean isSojournSampling) {
+		this.params = params;
+		this.seed = seed;
+
+		rngChannel = new Xoroshiro128Plus(seed);
+		rngEstimator = new Xoroshiro128Plus(seed);
+		if (trace != null) channel = new LossTraceChannel(trace, fit, rngChannel);
+		else if (isSojournSampling) channel = new SojournChannel(params.eps, params.lB, rngChannel);
+		else channel = new Channel(params.eps, params.lB, rngChannel);
+		channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, params.pFA, params.pMD, rngEstimator);
+		compressorPOMDP = new CompressorPOMDP(params.W, channel.pBG, channel.pGB, channelEstimator, params.filename);
+		decompressorPOMDP = new Decompressor(params.W);
+
+		compressorTimer = new CompressorTimer(params.timeOutIR2SO, params.timeOutSO2FO, params.timeOutFO2SO);
+		decompressorTimer = new Decompressor(params.W);
+
+		// The summaries are accumulated while simulating, the histories are not needed
+		accumulatorPOMDP = new SessionAccumulator(params.lenHeaderIR, params.lenHeaderFO, params.lenHeaderSO, params.lenPayload);
+		accumulatorTimer = new SessionAccumulator(params.lenHeaderIR, params.lenHeaderFO, params.lenHeaderSO, params.lenPayload);
+		decompressorPOMDP.setAccumulator(accumulatorPOMDP);
+		decompressorTimer.setAccumulator(accumulatorTimer);
+		accumulatorPOMDP.setChannel(channel); // The weights stay 1 unless the channel is simulated with importance sampling
+		accumulatorTimer.setChannel(channel);
+
+		channel.setLogEnabled(false);
+		compressorPOMDP.setLogEnabled(false);
+		decompressorPOMDP.setLogEnabled(false);
+		compressorTimer.setLogEnabled(false);
+		decompressorTimer.setLogEnabled(false);
+
+		beliefCurrent = new double [4 + params.W];
+	}
+
+	/**
+	 * Simulate one session of {@link SimulationParameters#N} packets and add its summaries to the cumulative ones.
+	 * The random streams are seeded from the index of the run, so the session only depends on the campaign seed and iRun.
+	 * @param iRun				the index of the run in the campaign
+	 * @param summaryCumPOMDP	the cumulative summary of the POMDP compressor
+	 * @param summaryCumTimer	the cumulative summary of the U-mode compressor
+	 */
+	void runSession(long iRun, SummarySession summaryCumPOMDP, SummarySession summaryCumTimer) {
+		long timeStart = (Metrics.JFR ? System.nanoTime() : 0);
+		rngChannel.setSeed(Xoroshiro128Plus.runSeed(seed, iRun));
+		rngEstimator.copyFrom(rngChannel);
+		rngEstimator.jump();
+		
+		channel.reset();
+
+		decompressorPOMDP.reset();
+		compressorPOMDP.reset();
+
+		decompressorTimer.reset();
+		compressorTimer.reset();
+		
+		accumulatorPOMDP.begin(summaryCumPOMDP);
+		accumulatorTimer.begin(summaryCumTimer);
+		
+		TraceRecorder.Trace trace = (traceRecorder == null ? null : traceRecorder.begin(iRun, beliefCurrent.length));
+		
+		for (int n = 0; n < params.N; n++) {
+			if (trace != null) System.arraycopy(compressorPOMDP.belief.data, 0, beliefCurrent, 0, beliefCurrent.length);
+			int typePacketPOMDP = compressorPOMDP.transmit(); // Compressor takes an action by transmitting a packet and updates its own state
+			if (trace != null) trace.record(channel.isGood, compressorPOMDP.channelObs, typePacketPOMDP, decompressorPOMDP.getStateCode(), beliefCurrent);
+			decompressorPOMDP.next(channel.isGood, typePacketPOMDP); // Decompressor update its state according to the actual channel state and the packet (if received)
+
+			int typePacketTimer = compressorTimer.transmit(); // Compressor takes an action by transmitting a packet and updates its own state
+			decompressorTimer.next(channel.isGood, typePacketTimer); // Decompressor update its state according to the actual channel state and the packet (if received)
+
+			channel.next(); // Update the channel state
+		}
+
+		if (Metrics.JFR) {
+			double efficiencyPOMDP = ((double) accumulatorPOMDP.nByteReceived) / accumulatorPOMDP.nByteTransmitted;
+			double efficiencyTimer = ((double) accumulatorTimer.nByteReceived) / accumulatorTimer.nByteTransmitted;
+			MetricsEvents.session(iRun, timeStart, params.N, efficiencyPOMDP, efficiencyTimer, channel.likelihoodRatio);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package simROHC;
+
+/**
+ *
+ * The trace of one POMDP ROHC session: for each packet, the channel state and its observation, the packet transmitted,
+ * the decompressor's state before receiving it and the compressor's belief before transmitting it.
+ *
+ * @see Simulator#plotPOMDPSession(SessionTrace, String, int, int)
+ */
+public interface SessionTrace {
+	/**
+	 * @return the number of packets in the session
+	 */
+	public int getNumPackets();
+
+	/**
+	 * @return the number of states of the compressor's belief, 4 + W
+	 */
+	public int getNumStates();
+
+	/**
+	 * @param iPacket
+	 * @return whether the channel is good when the iPacket-th packet is transmitted
+	 */
+	public boolean getChannel(int iPacket);
+
+	/**
+	 * @param iPacket
+	 * @return the channel estimator's observation when the iPacket-th packet is transmitted
+	 */
+	public boolean getChannelObs(int iPacket);
+
+	/**
+	 * @param iPacket
+	 * @return the type of the iPacket-th packet, 0, 1, 2 representing IR, FO, SO packets respectively
+	 */
+	public int getTypePacket(int iPacket);
+
+	/**
+	 * @param iPacket
+	 * @return the decompressor's state before receiving the iPacket-th packet, coded as in {@link Decompressor#getStateCode()}
+	 */
+	public int getDecompressorState(int iPacket);
+
+	/**
+	 * @param iPacket
+	 * @param iState
+	 * @return the compressor's belief on the iState-th state before transmitting the iPacket-th packet
+	 */
+	public double getBelief(int iPacket, int iState);
+}
@@ -0,0 +1,110 @@
+package simROHC;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ *
+ * The parameters of one simulated configuration: the channel, the channel estimator, the two compressors and the packet lengths.
+ *
+ */
+public class SimulationParameters {
+	/** Capability of the WLSB coding */
+	final int W;
+	/** The average duration of a sequence of bad states of the G-E channel */
+	final int lB;
+	/** The average erasure probability of the G-E channel */
+	final double eps;
+	/** The false alarm probability of the channel estimator */
+	final double pFA;
+	/** The miss detection probability of the channel estimator */
+	final double pMD;
+
+	final int timeOutIR2SO;
+	final int timeOutSO2FO;
+	final int timeOutFO2SO;
+
+	final int lenHeaderIR;
+	final int lenHeaderFO;
+	final int lenHeaderSO;
+	final int lenPayload;
+
+	/** The .policy file of the POMDP compressor */
+	final String filename;
+	/** Number of packets to transmit in each session */
+	final int N;
+
+	public SimulationParameters(int W, int lB, double eps, double pFA, double pMD, int timeOutIR2SO, int timeOutSO2FO, int timeOutFO2SO, int lenHeaderIR, int lenHeaderFO, int lenHeaderSO, int lenPayload, String filename, int N) {
+		this.W = W;
+		this.lB = lB;
+		this.eps = eps;
+		this.pFA = pFA;
+		this.pMD = pMD;
+
+		this.timeOutIR2SO = timeOutIR2SO;
+		this.timeOutSO2FO = timeOutSO2FO;
+		this.timeOutFO2SO = timeOutFO2SO;
+
+		this.lenHeaderIR = lenHeaderIR;
+		this.lenHeaderFO = lenHeaderFO;
+		this.lenHeaderSO = lenHeaderSO;
+		this.lenPayload = lenPayload;
+
+		this.filename = filename;
+		this.N = N;
+	}
+
+	/**
+	 * Write the parameters in binary, e.g. to send them to a {@link Worker}
+	 * @param output
+	 * @throws IOException
+	 * @see #readFrom(DataInput)
+	 */
+	void writeTo(DataOutput output) throws IOException {
+		output.writeInt(W);
+		output.writeInt(lB);
+		output.writeDouble(eps);
+		output.writeDouble(pFA);
+		output.writeDouble(pMD);
+		output.writeInt(timeOutIR2SO);
+		output.writeInt(timeOutSO2FO);
+		output.writeInt(timeOutFO2SO);
+		output.writeInt(lenHeaderIR);
+		output.writeInt(lenHeaderFO);
+		output.writeInt(lenHeaderSO);
+		output.writeInt(lenPayload);
+		output.writeUTF(filename);
+		output.writeInt(N);
+	}
+
+	/**
+	 * Read parameters written by {@link #writeTo(DataOutput)}
+	 * @param input
+	 * @return the parameters
+	 * @throws IOException
+	 */
+	static SimulationParameters readFrom(DataInput input) throws IOException {
+		int W = input.readInt();
+		int lB = input.readInt();
+		double eps = input.readDouble();
+		double pFA = input.readDouble();
+		double pMD = input.readDouble();
+		int timeOutIR2SO = input.readInt();
+		int timeOutSO2FO = input.readInt();
+		int timeOutFO2SO = input.readInt();
+		int lenHeaderIR = input.readInt();
+		int lenHeaderFO = input.readInt();
+		int lenHeaderSO = input.readInt();
+		int lenPayload = input.readInt();
+		String filename = input.readUTF();
+		int N = input.readInt();
+		return new SimulationParameters(W, lB, eps, pFA, pMD, timeOutIR2SO, timeOutSO2FO, timeOutFO2SO, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload, filename, N);
+	}
+
+	public String toString() {
+		return "W=" + W + ", lB=" + lB + ", eps=" + eps + ", pFA=" + pFA + ", pMD=" + pMD
+				+ ", timeOut=" + timeOutIR2SO + "/" + timeOutSO2FO + "/" + timeOutFO2SO
+				+ ", header=" + lenHeaderIR + "/" + lenHeaderFO + "/" + lenHeaderSO + ", payload=" + lenPayload + ", N=" + N;
+	}
+}
@@ -56,57 +56,35 @@ public class Simulator {
 			    
 		String filename = "out.policy";
 		int N = 200; // Number of packets to transmit
-		int nRun = 5000; // Number of Monte-Carlo Run of the simulation 
-		
-		// Create the components of the simulator
-		Channel channel = new Channel(eps, lB);
+		int nRun = 5000; // Maximal number of Monte-Carlo Run of the simulation 
+		double halfWidthTarget = 0.002; // The simulation stops once the 95% confidence intervals on the final efficiency are narrower than this
+		long seed = 20151231L; // Seed of the campaign, the same seed reproduces the same results
 		
+		int nThread = Runtime.getRuntime().availableProcessors(); // Number of threads simulating the runs
 		
-		CompressorPOMDP.ChannelEstimator channelEstimator = new CompressorPOMDP.ChannelEstimator(channel, pFA, pMD);
-		CompressorPOMDP compressorPOMDP = new CompressorPOMDP(W, channel.pBG, channel.pGB, channelEstimator, filename);
-		Decompressor decompressorPOMDP = new Decompressor(W);
-		
-		CompressorTimer compressorTimer = new CompressorTimer(timeOutIR2SO, timeOutSO2FO, timeOutFO2SO);
-		Decompressor decompressorTimer = new Decompressor(W);
-		
-		// Start the simulation
-		SummarySession summaryCumPOMDP = new SummarySession(N);
-		SummarySession summaryCumTimer = new SummarySession(N);
-		for (int iRun = 0; iRun < nRun; iRun++) {
-			for (int n = 0; n < N; n++) {
-				int typePacketPOMDP = compressorPOMDP.transmit(); // Compressor takes an action by transmitting a packet and updates its own state
-				decompressorPOMDP.next(channel.isGood, typePacketPOMDP); // Decompressor update its state according to the actual channel state and the packet (if received)
-				
-				int typePacketTimer = compressorTimer.transmit(); // Compressor takes an action by transmitting a packet and updates its own state
-				decompressorTimer.next(channel.isGood, typePacketTimer); // Decompressor update its state according to the actual channel state and the packet (if received)
-				
-				channel.next(); // Update the channel state
-			}
-			SummarySession summaryPOMDP = new SummarySession(compressorPOMDP.getLogPacketType(), channel.log, decompressorPOMDP.log, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload);
-			summaryCumPOMDP.sum(summaryPOMDP);
-			
-			SummarySession summaryTimer = new SummarySession(compressorTimer.log, channel.log, decompressorTimer.log, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload);
-			summaryCumTimer.sum(summaryTimer);
-			
-			//System.out.println(decompressorTimer.log);
-			
-			channel.reset();
-			
-			decompressorPOMDP.reset();
-			compressorPOMDP.reset();
-			
-			decompressorTimer.reset();
-			compressorTimer.reset();
-		}
-		summaryCumPOMDP.normalize(nRun);
-		summaryCumTimer.normalize(nRun);
+		SimulationParameters params = new SimulationParameters(W, lB, eps, pFA, pMD, timeOutIR2SO, timeOutSO2FO, timeOutFO2SO, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload, filename, N);
 		
+		// Start the simulation. To estimate the rare regimes of long bad bursts with fewer runs, bias the channel with
+		// engine.setImportanceSampling(qGB, qBG) before running the engine, e.g. with a larger qGB and a smaller qBG than the channel's
+		// To replay a recorded loss trace instead, call engine.setLossTrace(trace, trace.fit(1)) with trace = LossTrace.open(file)
+		MonteCarloEngine engine = new MonteCarloEngine(params, nThread, seed);
+		// One checkpoint file per campaign, named after its fingerprint, so that a run with other parameters starts afresh instead of failing on the checkpoint of an interrupted one
+		String campaign = engine.describe() + ", runUntil " + halfWidthTarget + " " + false + " " + 500 + " " + nRun;
+		File fileCheckpoint = new File(String.format("simulation-%08x.checkpoint", campaign.hashCode()));
+		engine.setCheckpoint(fileCheckpoint, 60000); // If interrupted, the simulation resumes from the runs merged in the last minute when started again
+		SummarySession [] summaryCum = engine.runUntil(halfWidthTarget, false, 500, nRun);
+		fileCheckpoint.delete();
+		SummarySession summaryCumPOMDP = summaryCum[0];
+		SummarySession summaryCumTimer = summaryCum[1];
 		
 		System.out.println(summaryCumPOMDP);
+		if (Metrics.ENABLED) System.out.println(Metrics.report()); // With -DsimROHC.metrics=true
+		Channel channel = new Channel(eps, lB);
 		double pG = channel.pBG / (channel.pBG + channel.pGB);
 		SummarySession.plotPerformance(new SummarySession [] {summaryCumPOMDP, summaryCumTimer}, new String [] {"POMDP", "U-mode"}, lenHeaderIR, lenHeaderFO, lenHeaderSO, lenPayload, pG);
 		
-		//plotPOMDPSession(compressorPOMDP.log, channel.log, decompressor.log, "result", 1920, 1080);
+		// To plot a session, record it with engine.setTraceRecorder(new TraceRecorder(TraceRecorder.Mode.SAMPLED, nRun)) before running the engine, then:
+		//plotPOMDPSession(traceRecorder.getTraces().get(0), "result", 1920, 1080);
 		
 	    System.out.println("Simulation completed");
 	}
@@ -134,6 +112,55 @@ public class Simulator {
 	    ChartUtilities.saveChartAsJPEG(output, chart, width, height);
 	}
 	
+	/**
+	 * Plot the system state (belief), channel state and packetType over time figure for a recorded POMDP ROHC session and save it to a file
+	 * @param trace				the trace of the session
+	 * @param fileName			the file to save the output figure (don't include filename extension, saved as .jpg file)
+	 * @param width				width of the output figure
+	 * @param height			height of the output figure
+	 * @throws IOException 
+	 * @see TraceRecorder
+	 */
+	public static void plotPOMDPSession(SessionTrace trace, String fileName, int width, int height) throws IOException {
+		plotPOMDPSession(trace, fileName, width, height, TraceDownsampler.Pooling.MAX);
+	}
+	
+	/**
+	 * Plot a recorded POMDP ROHC session and save it to a file. Sessions longer than the width of the figure are downsampled to one bin per pixel before building the datasets.
+	 * @param trace				the trace of the session
+	 * @param fileName			the file to save the output figure (don't include filename extension, saved as .jpg file)
+	 * @param width				width of the output figure
+	 * @param height			height of the output figure
+	 * @param pooling			how the belief is pooled over the packets of a bin
+	 * @throws IOException 
+	 * @see TraceDownsampler
+	 */
+	public static void plotPOMDPSession(SessionTrace trace, String fileName, int width, int height, TraceDownsampler.Pooling pooling) throws IOException {
+		XYZDataset datasetBelief;
+		XYDataset datasetState;
+		XYDataset datasetChannel;
+		XYDataset datasetPacket;
+		double blockWidth = 1;
+		if (trace.getNumPackets() > width) {
+			TraceDownsampler downsampler = new TraceDownsampler(trace, width);
+			datasetBelief = downsampler.createBeliefDataSet(pooling);
+			datasetState = downsampler.createStateDataSet();
+			datasetChannel = downsampler.createChannelDataSet();
+			datasetPacket = downsampler.createTypePacketDataSet();
+			blockWidth = downsampler.binWidth;
+		} else {
+			datasetBelief = createBeliefDataSet(trace);
+			datasetState = createStateDataSet(trace);
+			datasetChannel = createChannelDataSet(trace);
+			datasetPacket =  createTypePacketDataSet(trace);
+		}
+		
+		int W = trace.getNumStates() - 4;
+		JFreeChart chart = createChart(W, datasetBelief, datasetState, datasetChannel, datasetPacket, blockWidth);
+		File output = new File(fileName + ".jpg"); 
+	    ChartUtilities.saveChartAsJPEG(output, chart, width, height);
+	}
+	
 	/**
 	 * Create the dataset used to generate the heatmap representing the compressor's belief on the system's states
 	 * @param log
@@ -233,6 +260,105 @@ public class Simulator {
 		return action;
 	}
 	
+	/**
+	 * Create the dataset used to generate the heatmap representing the compressor's belief on the system's states
+	 * @param trace
+	 * @return 
+	 */
+	static XYZDataset createBeliefDataSet(SessionTrace trace) {
+		int nPacket = trace.getNumPackets();
+		int nState = trace.getNumStates();
+		double [][] logBelief = new double[3][nPacket * nState];
+		for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+			for (int iState = 0; iState < nState; iState++) {
+				int idx = iPacket * nState + iState;
+				logBelief[0][idx] = iPacket;
+				logBelief[1][idx] = iState;
+				logBelief[2][idx] = trace.getBelief(iPacket, iState);
+			}
+		}
+		DefaultXYZDataset beliefHistory = new DefaultXYZDataset();
+		beliefHistory.addSeries("Series0", logBelief);
+		return beliefHistory;
+	}
+	
+	/**
+	 * Create the dataset corresponding to the actual system's states
+	 * @param trace
+	 * @return
+	 */
+	static XYDataset createStateDataSet(SessionTrace trace) {
+		int nPacket = trace.getNumPackets();
+		
+		double [][] states = new double[2][nPacket];
+		for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+			states[0][iPacket] = iPacket;
+			states[1][iPacket] = stateIndex(trace.getDecompressorState(iPacket), trace.getChannel(iPacket));
+		}
+	
+		DefaultXYDataset stateHistory = new DefaultXYDataset();
+		stateHistory.addSeries("Series0", states);
+		return stateHistory;
+	}
+	
+	/**
+	 * The index of the system's state in the belief, in the order of NC_B, NC_G, SC_B, SC_G, FC_0, FC_1, ..., FC_{W - 1}
+	 * @param stateDecompressor	the decompressor's state code
+	 * @param channelState		whether the channel is good
+	 * @return
+	 * @see Decompressor#getStateCode()
+	 */
+	static int stateIndex(int stateDecompressor, boolean channelState) {
+		switch (stateDecompressor) {
+			case 0: return channelState ? 1 : 0;
+			case 1: return channelState ? 3 : 2;
+			default: return stateDecompressor + 2;
+		}
+	}
+	
+	/**
+	 * Create the dataset representing the actual and the observed channel states
+	 * @param trace
+	 * @return
+	 */
+	static XYDataset createChannelDataSet(SessionTrace trace) {
+		int nPacket = trace.getNumPackets();
+		
+		double [][] stateChannelActual = new double[2][nPacket];
+		double [][] stateChannelObs = new double[2][nPacket];
+		for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+			stateChannelActual[0][iPacket] = iPacket;
+			stateChannelActual[1][iPacket] = trace.getChannel(iPacket) ? 1 : 0;
+			
+			stateChannelObs[0][iPacket] = iPacket;
+			stateChannelObs[1][iPacket] = trace.getChannelObs(iPacket) ? 1 : 0;
+		}
+	
+		DefaultXYDataset stateChannel = new DefaultXYDataset();
+		stateChannel.addSeries("Actual", stateChannelActual);
+		stateChannel.addSeries("Observed", stateChannelObs);
+		return stateChannel;
+	}
+	
+	/**
+	 * Create the dataset representing the type of packets transmitted
+	 * @param trace
+	 * @return
+	 */
+	static XYDataset createTypePacketDataSet(SessionTrace trace) {
+		int nPacket = trace.getNumPackets();
+		
+		double [][] packets = new double[2][nPacket];
+		for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+			packets[0][iPacket] = iPacket;
+			packets[1][iPacket] = trace.getTypePacket(iPacket);
+		}
+	
+		DefaultXYDataset action = new DefaultXYDataset();
+		action.addSeries("Series0", packets);
+		return action;
+	}
+	
 	/**
 	 * Create and save a jfreechart
 	 * @param W
@@ -243,6 +369,21 @@ public class Simulator {
 	 * @return
 	 */
 	public static JFreeChart createChart(int W, XYZDataset datasetBelief, XYDataset datasetState, XYDataset datasetChannel, XYDataset datasetPacket) {
+		return createChart(W, datasetBelief, datasetState, datasetChannel, datasetPacket, 1);
+	}
+	
+	/**
+	 * Create a jfreechart whose belief heatmap has one column per blockWidth packets
+	 * @param W
+	 * @param datasetBelief
+	 * @param datasetState
+	 * @param datasetChannel
+	 * @param datasetPacket
+	 * @param blockWidth	the number of packets covered by each column of the heatmap, 1 unless the datasets are downsampled
+	 * @return
+	 * @see TraceDownsampler
+	 */
+	public static JFreeChart createChart(int W, XYZDataset datasetBelief, XYDataset datasetState, XYDataset datasetChannel, XYDataset datasetPacket, double blockWidth) {
 		Font fontGeneral = new Font("Dialog", Font.PLAIN, 20); // Set all fontsize to 20
 		
 		// The common x-axis
@@ -269,6 +410,7 @@ public class Simulator {
         XYBlockRenderer rendererBelief = new XYBlockRenderer();
         LookupPaintScale paintScale = createPaintScale(256);
         rendererBelief.setPaintScale(paintScale);
+        rendererBelief.setBlockWidth(blockWidth);
         
         XYPlot subplotState = new XYPlot(datasetBelief, null, yAxisState, rendererBelief); // The system state
         
@@ -0,0 +1,144 @@
+package simROHC;
+
+/**
+ *
+ * The Gilbert-Elliot channel model, drawing the length of each sojourn in the good or the bad state at once instead of one transition per packet.
+ * The sojourns are geometric with parameters qGB and qBG, drawn by inverse CDF, so there is one random number per sojourn rather than per packet
+ * (20 times fewer for eps = 0.2 and lB = 8: the sojourns last 32 good and 8 bad packets on average). The states have the same distribution as the ones of {@link Channel}, but not the same sequence for a given stream.
+ *
+ * {@link #skip(long)} fast-forwards through the packets, e.g. to the end of a good sojourn with {@link #getRemainingSojourn()},
+ * when the compressor and the decompressor do not depend on the channel over these packets.
+ *
+ */
+public class SojournChannel extends Channel {
+	/** The number of packets left in the current sojourn, including the current one */
+	long remaining;
+
+	/**
+	 * Create a new channel with pBG and pGB, initialize the channel state using the steady state of the G-E model.
+	 * @param pBG
+	 * @param pGB
+	 * @param rng the random stream driving the channel state
+	 */
+	public SojournChannel(double pBG, double pGB, RandomStream rng) {
+		super(pBG, pGB, rng);
+	}
+
+	/**
+	 * Create a new channel using the alternative definition of G-E model
+	 * @param eps the average erasure probability
+	 * @param lB the average duration of a sequence of bad states
+	 * @param rng the random stream driving the channel state
+	 */
+	public SojournChannel(double eps, int lB, RandomStream rng) {
+		this(1 / ((double) lB), 1 / ((double) lB) / (1 / eps - 1), rng);
+	}
+
+	/**
+	 * Draw the length of a sojourn
+	 * @param p	the probability to leave the state at each packet
+	 * @return a geometric length, at least 1
+	 */
+	long drawSojourn(double p) {
+		double length = 1 + Math.floor(Math.log(1 - rng.nextDouble()) / Math.log1p(-p));
+		return (length < Long.MAX_VALUE ? (long) length : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Get the number of packets left in the current sojourn
+	 * @return the number of packets, including the current one, before the channel state changes
+	 */
+	public long getRemainingSojourn() {
+		return remaining;
+	}
+
+	/**
+	 * Update the channel state.
+	 */
+	public void next() {
+		boolean isGoodBefore = isGood;
+		if (remaining > 1) {
+			remaining--;
+			likelihoodRatio *= (isGood ? ratioGG : ratioBB);
+		} else {
+			likelihoodRatio *= (isGood ? ratioGB : ratioBG);
+			isGood = !isGood;
+			remaining = drawSojourn(isGood ? qGB : qBG);
+		}
+		if (Metrics.ENABLED) countBurst(isGoodBefore);
+		if (logEnabled) log.add(isGood);
+	}
+
+	/**
+	 * Update the channel state k times, drawing one random number per sojourn ended, or k times {@link #next()} when the states are logged or the bursts counted
+	 * @param k	the number of packets to skip
+	 */
+	public void skip(long k) {
+		if (logEnabled || Metrics.ENABLED) {
+			for (long i = 0; i < k; i++) next();
+			return;
+		}
+		while (k >= remaining) {
+			k -= remaining;
+			likelihoodRatio *= (isGood ? Math.pow(ratioGG, remaining - 1) * ratioGB : Math.pow(ratioBB, remaining - 1) * ratioBG);
+			isGood = !isGood;
+			remaining = drawSojourn(isGood ? qGB : qBG);
+		}
+		likelihoodRatio *= Math.pow(isGood ? ratioGG : ratioBB, k);
+		remaining -= k;
+	}
+
+	public void reset() {
+		super.reset();
+		remaining = drawSojourn(isGood ? qGB : qBG); // Geometric sojourns are memoryless, the first one is drawn as the others
+	}
+
+	/**
+	 * Compare the sojourn sampling with the per-packet transitions of {@link Channel} on 10^8 packets
+	 * @param args
+	 */
+	public static void main(String [] args) {
+		long nPacket = 100000000L;
+		final long [] nDraw = new long [1];
+		final Xoroshiro128Plus rng = new Xoroshiro128Plus(20151231L);
+		RandomStream counter = new RandomStream() {
+			public double nextDouble() {
+				nDraw[0]++;
+				return rng.nextDouble();
+			}
+		};
+
+		Channel [] channels = {new Channel(0.2, 8, counter), new SojournChannel(0.2, 8, counter)};
+		for (Channel channel : channels) {
+			channel.setLogEnabled(false);
+			nDraw[0] = 0;
+			long nG = 0;
+			long timeStart = System.nanoTime();
+			for (long n = 0; n < nPacket; n++) {
+				if (channel.getChannelState()) nG++;
+				channel.next();
+			}
+			double time = (System.nanoTime() - timeStart) / 1e9;
+			System.out.println(channel.getClass().getSimpleName() + ": eps " + (1 - ((double) nG) / nPacket) + ", " + ((double) nDraw[0]) / nPacket + " draws per packet, " + time + " s");
+		}
+
+		// Fast-forward through the good sojourns, the bad packets being simulated one by one
+		SojournChannel channel = (SojournChannel) channels[1];
+		nDraw[0] = 0;
+		long nB = 0;
+		long timeStart = System.nanoTime();
+		for (long n = 0; n < nPacket; ) {
+			if (channel.getChannelState()) {
+				long k = Math.min(channel.getRemainingSojourn(), nPacket - n);
+				channel.skip(k);
+				n += k;
+			} else {
+				nB++;
+				channel.next();
+				n++;
+			}
+		}
+		double time = (System.nanoTime() - timeStart) / 1e9;
+		System.out.println("Skipping the good sojourns: eps " + ((double) nB) / nPacket + ", " + ((double) nDraw[0]) / nPacket + " draws per packet, " + time + " s");
+	}
+}
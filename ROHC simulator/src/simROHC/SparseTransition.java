@@ -0,0 +1,80 @@
+package simROHC;
+
+import org.jblas.DoubleMatrix;
+
+/**
+ *
+ * A state transition matrix stored by columns, keeping only its non-zero entries.
+ * The transition matrices of {@link CompressorPOMDP} have about 2 non-zero entries per row, so propagating a belief costs O(W) instead of O(W^2).
+ *
+ */
+class SparseTransition {
+	/** The number of states */
+	final int nState;
+	/** The non-zero entries of column j are stored at index colStart[j] (inclusive) to colStart[j + 1] (exclusive) */
+	final int [] colStart;
+	/** The row (origin state) of each non-zero entry */
+	final int [] rowIdx;
+	/** The transition probability of each non-zero entry */
+	final double [] prob;
+
+	/**
+	 * Create the sparse representation of a square transition matrix
+	 * @param funcTransition the transition matrix, entry (i, j) being the probability to transit from state i to state j
+	 */
+	SparseTransition(DoubleMatrix funcTransition) {
+		nState = funcTransition.rows;
+
+		int nNonZero = 0;
+		for (int i = 0; i < funcTransition.length; i++) {
+			if (funcTransition.data[i] != 0) nNonZero++;
+		}
+
+		colStart = new int [nState + 1];
+		rowIdx = new int [nNonZero];
+		prob = new double [nNonZero];
+		int k = 0;
+		for (int j = 0; j < nState; j++) {
+			colStart[j] = k;
+			for (int i = 0; i < nState; i++) {
+				double p = funcTransition.get(i, j);
+				if (p != 0) {
+					rowIdx[k] = i;
+					prob[k] = p;
+					k++;
+				}
+			}
+		}
+		colStart[nState] = k;
+	}
+
+	/**
+	 * Compute the row vector belief * T
+	 * @param belief	the belief on the current state
+	 * @param out		the buffer receiving the distribution of the next state, must not be the belief itself
+	 */
+	void propagate(double [] belief, double [] out) {
+		for (int j = 0; j < nState; j++) {
+			double sum = 0;
+			for (int k = colStart[j]; k < colStart[j + 1]; k++) {
+				sum += belief[rowIdx[k]] * prob[k];
+			}
+			out[j] = sum;
+		}
+	}
+
+	/**
+	 * Compute the column vector T * value, i.e. the expectation of a value of the next state from each current state
+	 * @param value	the value of each next state
+	 * @param out	the buffer receiving the expected value from each current state, must not be the value itself
+	 */
+	void rightMultiply(double [] value, double [] out) {
+		for (int i = 0; i < nState; i++) out[i] = 0;
+		for (int j = 0; j < nState; j++) {
+			double v = value[j];
+			for (int k = colStart[j]; k < colStart[j + 1]; k++) {
+				out[rowIdx[k]] += prob[k] * v;
+			}
+		}
+	}
+}
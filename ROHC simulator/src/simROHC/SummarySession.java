@@ -3,8 +3,11 @@ package simROHC;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import org.jfree.chart.ChartUtilities;
@@ -28,6 +31,9 @@ import org.jfree.ui.RectangleEdge;
  *
  */
 public class SummarySession {
+	/** The two-sided 95% quantile of the normal distribution */
+	static final double Z_95 = 1.959963984540054;
+
 	double [] efficiency;
 	double nIR;
 	double nFO;
@@ -36,6 +42,14 @@ public class SummarySession {
 	double nG;
 	double nB;
 	
+	/** The sum of the likelihood ratios of the sessions at each packet, the weights of the sessions simulated with importance sampling (1 otherwise) */
+	double [] weight;
+	
+	/** The number of sessions summarized, and the running mean and sum of squared deviations of their efficiency at each packet (Welford) */
+	int nSession;
+	double [] meanEfficiency;
+	double [] m2Efficiency;
+	
 	public SummarySession(List<Integer> logPacketType, List<Boolean> logChannel, List<Decompressor.LogEntry> logDecompressor, int lenHeaderIR, int lenHeaderFO, int lenHeaderSO, int lenPayload) {
 		
 		int nPacket = logPacketType.size();
@@ -80,7 +94,13 @@ public class SummarySession {
 				nB++;
 			}
 			efficiency[iPacket] = ((double)nByteReceived) / nByteTransmitted;
-		}		
+		}
+		
+		weight = new double [nPacket];
+		Arrays.fill(weight, 1);
+		nSession = 1;
+		meanEfficiency = efficiency.clone();
+		m2Efficiency = new double [nPacket];
 	}
 	
 	public SummarySession(int nPacket) {
@@ -91,6 +111,53 @@ public class SummarySession {
 		
 		nG = 0;
 		nB = 0;
+		
+		weight = new double [nPacket];
+		nSession = 0;
+		meanEfficiency = new double [nPacket];
+		m2Efficiency = new double [nPacket];
+	}
+	
+	/**
+	 * Account for the efficiency of one more session at a packet, in Welford's online update
+	 * @param iPacket			the index of the packet
+	 * @param x					the cumulative efficiency of the session at this packet, multiplied by its weight
+	 * @param inverseSession	1 / nSession, nSession already counting the session
+	 */
+	void addEfficiency(int iPacket, double x, double inverseSession) {
+		efficiency[iPacket] += x;
+		double delta = x - meanEfficiency[iPacket];
+		meanEfficiency[iPacket] += delta * inverseSession;
+		m2Efficiency[iPacket] += delta * (x - meanEfficiency[iPacket]);
+	}
+	
+	/**
+	 * @param iPacket	the index of the packet
+	 * @return the sample variance of the efficiency of the sessions at this packet, NaN with less than 2 sessions
+	 */
+	public double varianceEfficiency(int iPacket) {
+		return (nSession < 2 ? Double.NaN : m2Efficiency[iPacket] / (nSession - 1));
+	}
+	
+	/**
+	 * The half-width of the confidence interval on the mean efficiency at a packet, in the normal approximation
+	 * @param iPacket	the index of the packet
+	 * @param z			the quantile of the normal distribution, e.g. {@link #Z_95}
+	 * @return the half-width, infinite with less than 2 sessions
+	 */
+	public double halfWidth(int iPacket, double z) {
+		if (nSession < 2) return Double.POSITIVE_INFINITY;
+		return z * Math.sqrt(varianceEfficiency(iPacket) / nSession);
+	}
+	
+	/**
+	 * @param z	the quantile of the normal distribution, e.g. {@link #Z_95}
+	 * @return the largest half-width of the confidence intervals over the whole efficiency curve
+	 */
+	public double maxHalfWidth(double z) {
+		double max = 0;
+		for (int iPacket = 0; iPacket < efficiency.length; iPacket++) max = Math.max(max, halfWidth(iPacket, z));
+		return max;
 	}
 	
 	public String toString() {
@@ -104,6 +171,10 @@ public class SummarySession {
 		output.append("Channel states:\n");
 		output.append(" - Good:" + nG + "\n");
 		output.append(" - Bad:" + nB + "\n");
+		if (nSession > 1 && efficiency.length > 0) {
+			int iLast = efficiency.length - 1;
+			output.append("Final efficiency: " + meanEfficiency[iLast] + " +/- " + halfWidth(iLast, Z_95) + " (95%, " + nSession + " sessions)\n");
+		}
 		return new String(output);
 	}
 	
@@ -118,9 +189,70 @@ public class SummarySession {
 		
 		for (int iPacket = 0; iPacket < efficiency.length; iPacket++) {
 			efficiency[iPacket] += summary.efficiency[iPacket];
+			weight[iPacket] += summary.weight[iPacket];
+		}
+		
+		// Merge the running means and squared deviations (Chan et al.)
+		if (summary.nSession == 0) return;
+		int nSessionCum = nSession + summary.nSession;
+		double weightOther = ((double)summary.nSession) / nSessionCum;
+		double weightCross = ((double)nSession) * summary.nSession / nSessionCum;
+		for (int iPacket = 0; iPacket < efficiency.length; iPacket++) {
+			double delta = summary.meanEfficiency[iPacket] - meanEfficiency[iPacket];
+			meanEfficiency[iPacket] += delta * weightOther;
+			m2Efficiency[iPacket] += summary.m2Efficiency[iPacket] + delta * delta * weightCross;
+		}
+		nSession = nSessionCum;
+	}
+	
+	/**
+	 * Write the summary in binary: the number of packets and of sessions, the counters, then the efficiency, the weight, and the running mean and squared deviations at each packet.
+	 * The sums are written as they are, so a summary read back before being normalized merges as the original one.
+	 * @param output
+	 * @throws IOException
+	 * @see #readFrom(DataInput)
+	 */
+	void writeTo(DataOutput output) throws IOException {
+		int nPacket = efficiency.length;
+		output.writeInt(nPacket);
+		output.writeInt(nSession);
+		output.writeDouble(nIR);
+		output.writeDouble(nFO);
+		output.writeDouble(nSO);
+		output.writeDouble(nG);
+		output.writeDouble(nB);
+		for (double [] values : new double [][] {efficiency, weight, meanEfficiency, m2Efficiency}) {
+			for (int iPacket = 0; iPacket < nPacket; iPacket++) output.writeDouble(values[iPacket]);
+		}
+	}
+	
+	/**
+	 * Read a summary written by {@link #writeTo(DataOutput)}
+	 * @param input
+	 * @param nPacket	the number of packets expected, checked before anything is allocated
+	 * @return the summary, bit for bit the one written
+	 * @throws IOException if the input fails or the summary is not of nPacket packets
+	 */
+	static SummarySession readFrom(DataInput input, int nPacket) throws IOException {
+		int nPacketRead = input.readInt();
+		if (nPacketRead != nPacket) throw new IOException("Summary of " + nPacketRead + " packets instead of " + nPacket);
+		SummarySession summary = new SummarySession(nPacket);
+		summary.nSession = input.readInt();
+		summary.nIR = input.readDouble();
+		summary.nFO = input.readDouble();
+		summary.nSO = input.readDouble();
+		summary.nG = input.readDouble();
+		summary.nB = input.readDouble();
+		for (double [] values : new double [][] {summary.efficiency, summary.weight, summary.meanEfficiency, summary.m2Efficiency}) {
+			for (int iPacket = 0; iPacket < nPacket; iPacket++) values[iPacket] = input.readDouble();
 		}
+		return summary;
 	}
 	
+	/**
+	 * Turn the sums into means over nRun sessions, the running means and squared deviations are left unchanged
+	 * @param nRun
+	 */
 	void normalize(int nRun) {
 		nIR /= nRun;
 		nFO /= nRun;
@@ -131,6 +263,7 @@ public class SummarySession {
 		
 		for (int iPacket = 0; iPacket < efficiency.length; iPacket++) {
 			efficiency[iPacket] /= nRun;
+			weight[iPacket] /= nRun; // Close to 1 as long as the importance sampling is not too biased
 		}
 	}
 	
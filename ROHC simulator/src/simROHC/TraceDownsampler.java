@@ -0,0 +1,163 @@
+package simROHC;
+
+import org.jfree.data.xy.DefaultXYDataset;
+import org.jfree.data.xy.DefaultXYZDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYZDataset;
+
+/**
+ *
+ * Builds the datasets of {@link Simulator#createChart(int, XYZDataset, XYDataset, XYDataset, XYDataset)} from a long session trace, reduced to a given number of bins
+ * (typically the width of the figure in pixels), so that the cost of the chart depends on the size of the figure rather than on the length of the session.
+ * The belief heatmap is pooled over the packets of each bin, and the lines keep the minimum and the maximum of each bin, in the order they occur.
+ *
+ */
+public class TraceDownsampler {
+	/** How the beliefs of the packets of a bin are pooled into one column of the heatmap */
+	public enum Pooling {
+		/** The maximal belief of each state over the bin, short excursions remain visible */
+		MAX,
+		/** The mean belief of each state over the bin */
+		MEAN
+	}
+
+	/** A series of values indexed by packet */
+	interface Signal {
+		double get(int iPacket);
+	}
+
+	final SessionTrace trace;
+	/** The number of bins, at most the number of packets */
+	final int nBin;
+	/** The number of packets per bin, not an integer in general */
+	final double binWidth;
+
+	/**
+	 * @param trace	the session trace
+	 * @param nBin	the number of bins, e.g. the width of the figure in pixels
+	 */
+	public TraceDownsampler(SessionTrace trace, int nBin) {
+		this.trace = trace;
+		this.nBin = Math.max(1, Math.min(nBin, trace.getNumPackets()));
+		this.binWidth = ((double) trace.getNumPackets()) / this.nBin;
+	}
+
+	/** The first packet of a bin, bin nBin being the end of the session */
+	int binStart(int iBin) {
+		return (int) ((long) iBin * trace.getNumPackets() / nBin);
+	}
+
+	/**
+	 * Create the heatmap of the belief with one column per bin, to be drawn with blocks {@link #binWidth} packets wide
+	 * @param pooling how the beliefs of a bin are pooled
+	 * @return the dataset
+	 */
+	public XYZDataset createBeliefDataSet(Pooling pooling) {
+		int nState = trace.getNumStates();
+		double [][] logBelief = new double [3][nBin * nState];
+		for (int iBin = 0; iBin < nBin; iBin++) {
+			int start = binStart(iBin);
+			int end = binStart(iBin + 1);
+			for (int iState = 0; iState < nState; iState++) {
+				double pooled = 0;
+				for (int iPacket = start; iPacket < end; iPacket++) {
+					double belief = trace.getBelief(iPacket, iState);
+					pooled = (pooling == Pooling.MAX ? Math.max(pooled, belief) : pooled + belief);
+				}
+				if (pooling == Pooling.MEAN) pooled /= (end - start);
+
+				int idx = iBin * nState + iState;
+				logBelief[0][idx] = (iBin + 0.5) * binWidth - 0.5; // The center of the bin, the blocks being centered on x
+				logBelief[1][idx] = iState;
+				logBelief[2][idx] = pooled;
+			}
+		}
+		DefaultXYZDataset beliefHistory = new DefaultXYZDataset();
+		beliefHistory.addSeries("Series0", logBelief);
+		return beliefHistory;
+	}
+
+	/**
+	 * Create the dataset corresponding to the actual system's states
+	 * @return the dataset, with at most 2 points per bin
+	 * @see Simulator#createStateDataSet(SessionTrace)
+	 */
+	public XYDataset createStateDataSet() {
+		DefaultXYDataset stateHistory = new DefaultXYDataset();
+		stateHistory.addSeries("Series0", decimate(new Signal() {
+			public double get(int iPacket) {
+				return Simulator.stateIndex(trace.getDecompressorState(iPacket), trace.getChannel(iPacket));
+			}
+		}));
+		return stateHistory;
+	}
+
+	/**
+	 * Create the dataset representing the actual and the observed channel states
+	 * @return the dataset, with at most 2 points per bin in each series
+	 * @see Simulator#createChannelDataSet(SessionTrace)
+	 */
+	public XYDataset createChannelDataSet() {
+		DefaultXYDataset stateChannel = new DefaultXYDataset();
+		stateChannel.addSeries("Actual", decimate(new Signal() {
+			public double get(int iPacket) {
+				return trace.getChannel(iPacket) ? 1 : 0;
+			}
+		}));
+		stateChannel.addSeries("Observed", decimate(new Signal() {
+			public double get(int iPacket) {
+				return trace.getChannelObs(iPacket) ? 1 : 0;
+			}
+		}));
+		return stateChannel;
+	}
+
+	/**
+	 * Create the dataset representing the type of packets transmitted
+	 * @return the dataset, with at most 2 points per bin
+	 * @see Simulator#createTypePacketDataSet(SessionTrace)
+	 */
+	public XYDataset createTypePacketDataSet() {
+		DefaultXYDataset action = new DefaultXYDataset();
+		action.addSeries("Series0", decimate(new Signal() {
+			public double get(int iPacket) {
+				return trace.getTypePacket(iPacket);
+			}
+		}));
+		return action;
+	}
+
+	/**
+	 * Min/max decimation: keep the minimum and the maximum of each bin at the packets where they occur, so that no level reached by the series is lost
+	 * @param signal	the series
+	 * @return the x (packet) and y values of the points kept, as expected by {@link DefaultXYDataset#addSeries(Comparable, double[][])}
+	 */
+	double [][] decimate(Signal signal) {
+		double [] x = new double [2 * nBin];
+		double [] y = new double [2 * nBin];
+		int nPoint = 0;
+		for (int iBin = 0; iBin < nBin; iBin++) {
+			int start = binStart(iBin);
+			int end = binStart(iBin + 1);
+			int iMin = start, iMax = start;
+			double min = signal.get(start), max = min;
+			for (int iPacket = start + 1; iPacket < end; iPacket++) {
+				double value = signal.get(iPacket);
+				if (value < min) { min = value; iMin = iPacket; }
+				if (value > max) { max = value; iMax = iPacket; }
+			}
+			int iFirst = Math.min(iMin, iMax);
+			int iSecond = Math.max(iMin, iMax);
+			x[nPoint] = iFirst;
+			y[nPoint++] = (iFirst == iMin ? min : max);
+			if (iSecond != iFirst) {
+				x[nPoint] = iSecond;
+				y[nPoint++] = (iSecond == iMin ? min : max);
+			}
+		}
+		double [][] points = new double [2][nPoint];
+		System.arraycopy(x, 0, points[0], 0, nPoint);
+		System.arraycopy(y, 0, points[1], 0, nPoint);
+		return points;
+	}
+}
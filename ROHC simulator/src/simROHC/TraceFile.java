@@ -0,0 +1,247 @@
+package simROHC;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * The columnar binary file format of a {@link SessionTrace}, read back through a read-only memory mapping without copying the columns on the heap.
+ *
+ * The file contains, in big-endian order:
+ * <ul>
+ * <li>the header: the magic number {@link #MAGIC}, the index of the run (long), the number of packets, the number of states,
+ * and the number of runs of the channel, observation and packet type columns (ints);</li>
+ * <li>the channel column, run-length encoded: the state of the first packet (int, 0 or 1) and the exclusive end of each run (ints). Consecutive runs alternate between bad and good;</li>
+ * <li>the channel observation column, encoded as the channel column;</li>
+ * <li>the packet type column, run-length encoded: the exclusive end of each run (ints) then the type of each run (bytes, padded to 4 bytes);</li>
+ * <li>the decompressor's state column (one short per packet, padded to 4 bytes);</li>
+ * <li>the belief column (one float per packet and state, packet by packet).</li>
+ * </ul>
+ * Gilbert-Elliott bursts make the run-length encoded columns a small fraction of the packet count.
+ *
+ */
+public class TraceFile {
+	/** The magic number at the beginning of a trace file ("ROHCTRC1") */
+	static final long MAGIC = 0x524F484354524331L;
+	/** The size of the header, in bytes */
+	static final int HEADER_SIZE = 8 + 8 + 4 * 5;
+
+	/**
+	 * Write a trace to a file through a FileChannel
+	 * @param trace	the trace to write
+	 * @param file	the file to create or overwrite
+	 * @throws IOException
+	 */
+	public static void write(SessionTrace trace, File file) throws IOException {
+		int nPacket = trace.getNumPackets();
+		int nState = trace.getNumStates();
+
+		int nRunChannel = 0, nRunObs = 0, nRunType = 0;
+		for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+			if (iPacket == 0 || trace.getChannel(iPacket) != trace.getChannel(iPacket - 1)) nRunChannel++;
+			if (iPacket == 0 || trace.getChannelObs(iPacket) != trace.getChannelObs(iPacket - 1)) nRunObs++;
+			if (iPacket == 0 || trace.getTypePacket(iPacket) != trace.getTypePacket(iPacket - 1)) nRunType++;
+		}
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+		try {
+			output.writeLong(MAGIC);
+			output.writeLong(trace instanceof TraceRecorder.Trace ? ((TraceRecorder.Trace) trace).getRun() : -1);
+			output.writeInt(nPacket);
+			output.writeInt(nState);
+			output.writeInt(nRunChannel);
+			output.writeInt(nRunObs);
+			output.writeInt(nRunType);
+
+			// Channel
+			output.writeInt(nPacket > 0 && trace.getChannel(0) ? 1 : 0);
+			for (int iPacket = 1; iPacket < nPacket; iPacket++) {
+				if (trace.getChannel(iPacket) != trace.getChannel(iPacket - 1)) output.writeInt(iPacket);
+			}
+			if (nPacket > 0) output.writeInt(nPacket);
+
+			// Channel observation
+			output.writeInt(nPacket > 0 && trace.getChannelObs(0) ? 1 : 0);
+			for (int iPacket = 1; iPacket < nPacket; iPacket++) {
+				if (trace.getChannelObs(iPacket) != trace.getChannelObs(iPacket - 1)) output.writeInt(iPacket);
+			}
+			if (nPacket > 0) output.writeInt(nPacket);
+
+			// Packet type
+			for (int iPacket = 1; iPacket < nPacket; iPacket++) {
+				if (trace.getTypePacket(iPacket) != trace.getTypePacket(iPacket - 1)) output.writeInt(iPacket);
+			}
+			if (nPacket > 0) output.writeInt(nPacket);
+			for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+				if (iPacket == 0 || trace.getTypePacket(iPacket) != trace.getTypePacket(iPacket - 1)) output.writeByte(trace.getTypePacket(iPacket));
+			}
+			for (int i = nRunType; i % 4 != 0; i++) output.writeByte(0);
+
+			// Decompressor's state
+			for (int iPacket = 0; iPacket < nPacket; iPacket++) output.writeShort(trace.getDecompressorState(iPacket));
+			if (nPacket % 2 != 0) output.writeShort(0);
+
+			// Belief
+			for (int iPacket = 0; iPacket < nPacket; iPacket++) {
+				for (int iState = 0; iState < nState; iState++) output.writeFloat((float) trace.getBelief(iPacket, iState));
+			}
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Map a trace file
+	 * @param file	the trace file
+	 * @return the trace, backed by the read-only mapping of the file
+	 * @throws IOException if the file cannot be read or is not a trace file
+	 */
+	public static MappedTrace open(File file) throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+			if (input.length() < HEADER_SIZE || buffer.getLong(0) != MAGIC) throw new IOException(file + " is not a trace file");
+			return new MappedTrace(buffer);
+		} finally {
+			input.close(); // The mapping remains valid after the file is closed
+		}
+	}
+
+	/**
+	 * A trace read from the memory mapping of a trace file.
+	 * The run-length encoded columns are searched by bisection, starting from the run of the last packet read so that sequential reads are constant time.
+	 * Not thread-safe.
+	 */
+	public static class MappedTrace implements SessionTrace {
+		final MappedByteBuffer buffer;
+		final long iRun;
+		final int nPacket;
+		final int nState;
+
+		final RunLengthColumn channel;
+		final RunLengthColumn channelObs;
+		final RunLengthColumn typePacket;
+		/** The offset of the type of each run of the packet type column */
+		final int offsetTypeValue;
+		/** The offset of the decompressor's state column */
+		final int offsetState;
+		/** The offset of the belief column */
+		final int offsetBelief;
+
+		MappedTrace(MappedByteBuffer buffer) throws IOException {
+			this.buffer = buffer;
+			iRun = buffer.getLong(8);
+			nPacket = buffer.getInt(16);
+			nState = buffer.getInt(20);
+			int nRunChannel = buffer.getInt(24);
+			int nRunObs = buffer.getInt(28);
+			int nRunType = buffer.getInt(32);
+
+			int offset = HEADER_SIZE;
+			channel = new RunLengthColumn(buffer, offset + 4, nRunChannel);
+			channel.firstValue = buffer.getInt(offset);
+			offset += 4 + 4 * nRunChannel;
+			channelObs = new RunLengthColumn(buffer, offset + 4, nRunObs);
+			channelObs.firstValue = buffer.getInt(offset);
+			offset += 4 + 4 * nRunObs;
+			typePacket = new RunLengthColumn(buffer, offset, nRunType);
+			offset += 4 * nRunType;
+			offsetTypeValue = offset;
+			offset += (nRunType + 3) / 4 * 4;
+			offsetState = offset;
+			offset += (nPacket + 1) / 2 * 4;
+			offsetBelief = offset;
+			if ((long) offsetBelief + 4L * nPacket * nState != buffer.capacity()) throw new IOException("Truncated or corrupted trace file");
+		}
+
+		public long getRun() {
+			return iRun;
+		}
+
+		public int getNumPackets() {
+			return nPacket;
+		}
+
+		public int getNumStates() {
+			return nState;
+		}
+
+		public boolean getChannel(int iPacket) {
+			return ((channel.firstValue + channel.find(iPacket)) & 1) != 0;
+		}
+
+		public boolean getChannelObs(int iPacket) {
+			return ((channelObs.firstValue + channelObs.find(iPacket)) & 1) != 0;
+		}
+
+		public int getTypePacket(int iPacket) {
+			return buffer.get(offsetTypeValue + typePacket.find(iPacket));
+		}
+
+		public int getDecompressorState(int iPacket) {
+			return buffer.getShort(offsetState + 2 * iPacket);
+		}
+
+		public double getBelief(int iPacket, int iState) {
+			return buffer.getFloat(offsetBelief + 4 * (iPacket * nState + iState));
+		}
+	}
+
+	/**
+	 * A run-length encoded column, stored as the exclusive end of each run in the mapped file
+	 */
+	static class RunLengthColumn {
+		final MappedByteBuffer buffer;
+		/** The offset of the run ends in the file */
+		final int offset;
+		final int nRun;
+		/** For boolean columns, the value of the first run (0 or 1) */
+		int firstValue;
+		/** The run of the last packet read */
+		private int runLast;
+
+		RunLengthColumn(MappedByteBuffer buffer, int offset, int nRun) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.nRun = nRun;
+		}
+
+		/** The exclusive end of a run */
+		int end(int iRunLength) {
+			return buffer.getInt(offset + 4 * iRunLength);
+		}
+
+		/** The start of a run */
+		int start(int iRunLength) {
+			return iRunLength == 0 ? 0 : end(iRunLength - 1);
+		}
+
+		/**
+		 * Find the run containing a packet
+		 * @param iPacket
+		 * @return the index of the run
+		 */
+		int find(int iPacket) {
+			if (iPacket >= start(runLast) && iPacket < end(runLast)) return runLast;
+			if (runLast + 1 < nRun && iPacket >= end(runLast) && iPacket < end(runLast + 1)) return ++runLast;
+
+			int low = 0;
+			int high = nRun - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (end(mid) <= iPacket) low = mid + 1;
+				else high = mid;
+			}
+			runLast = low;
+			return low;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package simROHC;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *
+ * Records the traces of POMDP ROHC sessions in compact primitive arrays: the channel states and observations as bitsets,
+ * the packet type and the decompressor's state packed in one short per packet, and the beliefs in a single float array.
+ * A recorder can be shared by several {@link SessionRunner}s.
+ *
+ */
+public class TraceRecorder {
+	/** Record no session, every {@link #period}-th session, or all the sessions */
+	public static enum Mode {OFF, SAMPLED, FULL};
+
+	final Mode mode;
+	/** In {@link Mode#SAMPLED} mode, the runs whose index is a multiple of period are recorded */
+	final int period;
+	/** The traces recorded so far */
+	private final List<Trace> traces;
+
+	/**
+	 * The trace of one session
+	 */
+	public static class Trace implements SessionTrace {
+		/** The index of the run of this session */
+		final long iRun;
+		final int nState;
+		int nPacket;
+		/** The channel states, bit i of word i / 64 being the state of packet i */
+		long [] channel;
+		/** The channel observations, bit i of word i / 64 being the observation of packet i */
+		long [] channelObs;
+		/** For each packet, the decompressor's state code shifted by 2 bits, or-ed with the packet type */
+		short [] typeState;
+		/** The beliefs, packet i occupying index i * nState to (i + 1) * nState (exclusive) */
+		float [] belief;
+
+		Trace(long iRun, int nState) {
+			this.iRun = iRun;
+			this.nState = nState;
+			channel = new long [4];
+			channelObs = new long [4];
+			typeState = new short [256];
+			belief = new float [256 * nState];
+		}
+
+		/**
+		 * Append one packet to the trace
+		 * @param channelState		whether the channel is good
+		 * @param channelObs		the channel estimator's observation
+		 * @param typePacket		the packet transmitted
+		 * @param stateDecompressor	the decompressor's state code before receiving the packet
+		 * @param beliefCurrent		the compressor's belief before transmitting the packet
+		 */
+		void record(boolean channelState, boolean channelObs, int typePacket, int stateDecompressor, double [] beliefCurrent) {
+			if (nPacket == typeState.length) {
+				typeState = Arrays.copyOf(typeState, 2 * nPacket);
+				belief = Arrays.copyOf(belief, 2 * nPacket * nState);
+			}
+			if (nPacket == 64 * channel.length) {
+				channel = Arrays.copyOf(channel, 2 * channel.length);
+				this.channelObs = Arrays.copyOf(this.channelObs, 2 * this.channelObs.length);
+			}
+			if (channelState) channel[nPacket >>> 6] |= 1L << nPacket;
+			if (channelObs) this.channelObs[nPacket >>> 6] |= 1L << nPacket;
+			typeState[nPacket] = (short) (stateDecompressor << 2 | typePacket);
+			int offset = nPacket * nState;
+			for (int s = 0; s < nState; s++) belief[offset + s] = (float) beliefCurrent[s];
+			nPacket++;
+		}
+
+		public long getRun() {
+			return iRun;
+		}
+
+		public int getNumPackets() {
+			return nPacket;
+		}
+
+		public int getNumStates() {
+			return nState;
+		}
+
+		public boolean getChannel(int iPacket) {
+			return (channel[iPacket >>> 6] & 1L << iPacket) != 0;
+		}
+
+		public boolean getChannelObs(int iPacket) {
+			return (channelObs[iPacket >>> 6] & 1L << iPacket) != 0;
+		}
+
+		public int getTypePacket(int iPacket) {
+			return typeState[iPacket] & 3;
+		}
+
+		public int getDecompressorState(int iPacket) {
+			return typeState[iPacket] >>> 2;
+		}
+
+		public double getBelief(int iPacket, int iState) {
+			return belief[iPacket * nState + iState];
+		}
+	}
+
+	/**
+	 * Create a trace recorder
+	 * @param mode		which sessions to record
+	 * @param period	in {@link Mode#SAMPLED} mode, record the runs whose index is a multiple of period
+	 */
+	public TraceRecorder(Mode mode, int period) {
+		this.mode = mode;
+		this.period = period;
+		traces = new ArrayList<Trace> ();
+	}
+
+	/**
+	 * Start the trace of a run, if this run is to be recorded
+	 * @param iRun		the index of the run
+	 * @param nState	the number of states of the compressor's belief
+	 * @return the trace to fill, or null if the run is not recorded
+	 */
+	Trace begin(long iRun, int nState) {
+		if (mode == Mode.OFF || (mode == Mode.SAMPLED && iRun % period != 0)) return null;
+		Trace trace = new Trace(iRun, nState);
+		synchronized (traces) {
+			traces.add(trace);
+		}
+		return trace;
+	}
+
+	/**
+	 * @return the traces recorded so far, sorted by run index
+	 */
+	public List<Trace> getTraces() {
+		List<Trace> sorted;
+		synchronized (traces) {
+			sorted = new ArrayList<Trace> (traces);
+		}
+		Collections.sort(sorted, new Comparator<Trace>() {
+			public int compare(Trace t1, Trace t2) {
+				return Long.compare(t1.iRun, t2.iRun);
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Write the traces recorded so far to a directory, one trace file named trace_&lt;run index&gt;.rtr per session
+	 * @param directory
+	 * @throws IOException
+	 * @see TraceFile
+	 */
+	public void save(File directory) throws IOException {
+		for (Trace trace : getTraces()) {
+			TraceFile.write(trace, new File(directory, "trace_" + trace.iRun + ".rtr"));
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package simROHC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ *
+ * A worker process of a {@link Coordinator}: it receives the configuration of the campaign, then simulates the ranges of blocks handed out
+ * and streams back the summaries of each block as soon as it is done. A worker with several threads opens one connection per thread.
+ *
+ */
+public class Worker {
+	/**
+	 * Work for a coordinator until it has no more ranges to hand out
+	 * @param host	the host of the coordinator
+	 * @param port	the port of the coordinator
+	 * @return the number of blocks simulated
+	 * @throws IOException if the connection fails
+	 */
+	static int work(String host, int port) throws IOException {
+		Socket socket = new Socket(host, port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			output.writeLong(Coordinator.MAGIC);
+			output.flush();
+
+			if (input.readLong() != Coordinator.MAGIC) throw new IOException("Not a coordinator");
+			SimulationParameters params = SimulationParameters.readFrom(input);
+			long seed = input.readLong();
+			int nRun = input.readInt();
+			double qGB = input.readDouble();
+			double qBG = input.readDouble();
+			boolean isSojournSampling = input.readBoolean();
+
+			MonteCarloEngine engine = new MonteCarloEngine(params, 1, seed);
+			if (!Double.isNaN(qGB)) engine.setImportanceSampling(qGB, qBG);
+			engine.setSojournSampling(isSojournSampling);
+			SessionRunner runner = engine.createRunner();
+
+			int nBlock = 0;
+			int iBlockStart;
+			while ((iBlockStart = input.readInt()) >= 0) {
+				int iBlockEnd = input.readInt();
+				for (int iBlock = iBlockStart; iBlock < iBlockEnd; iBlock++) {
+					SummarySession [] summaries = engine.runBlock(runner, iBlock, nRun);
+					output.writeInt(iBlock);
+					summaries[0].writeTo(output);
+					summaries[1].writeTo(output);
+					output.flush();
+					nBlock++;
+				}
+			}
+			return nBlock;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Work for a coordinator
+	 * @param args	the host and the port of the coordinator, and optionally the number of threads (1 by default)
+	 * @throws Exception
+	 */
+	public static void main(final String [] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: Worker <host> <port> [nThread]");
+			System.exit(1);
+		}
+		final int port = Integer.parseInt(args[1]);
+		int nThread = (args.length > 2 ? Integer.parseInt(args[2]) : 1);
+		Thread [] threads = new Thread [nThread];
+		for (int t = 0; t < nThread; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						work(args[0], port);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+	}
+}
@@ -0,0 +1,98 @@
+package simROHC;
+
+/**
+ *
+ * The xoroshiro128+ generator of Blackman and Vigna, seeded through SplitMix64.
+ * It holds no lock, and {@link #jump()} moves it 2^64 draws ahead to create non-overlapping streams.
+ * The seed of the i-th run of a campaign is computed directly by {@link #runSeed(long, long)}, so a single run can be replayed without drawing the runs before it.
+ *
+ */
+public class Xoroshiro128Plus implements RandomStream {
+	/** The increment of the SplitMix64 generator (the golden ratio) */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	/** The jump polynomial of xoroshiro128+, equivalent to 2^64 calls to {@link #nextLong()} */
+	private static final long [] JUMP = {0xdf900294d8f554a5L, 0x170865df4b3201fcL};
+
+	/** The state of the generator, read directly by the batch engines that keep one generator per session in arrays */
+	long s0;
+	long s1;
+
+	/**
+	 * Create a generator from a 64-bit seed
+	 * @param seed
+	 * @see #setSeed(long)
+	 */
+	public Xoroshiro128Plus(long seed) {
+		setSeed(seed);
+	}
+
+	/**
+	 * Reset the state of the generator from a 64-bit seed, expanded to 128 bits with SplitMix64
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		s0 = mix64(seed + GOLDEN_GAMMA);
+		s1 = mix64(seed + 2 * GOLDEN_GAMMA);
+		if ((s0 | s1) == 0) s1 = GOLDEN_GAMMA; // The all-zero state is not allowed
+	}
+
+	/**
+	 * Copy the state of another generator, the two then produce the same sequence
+	 * @param other
+	 */
+	public void copyFrom(Xoroshiro128Plus other) {
+		s0 = other.s0;
+		s1 = other.s1;
+	}
+
+	public long nextLong() {
+		long t0 = s0;
+		long t1 = s1;
+		long result = t0 + t1;
+
+		t1 ^= t0;
+		s0 = Long.rotateLeft(t0, 24) ^ t1 ^ (t1 << 16);
+		s1 = Long.rotateLeft(t1, 37);
+		return result;
+	}
+
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * Advance the generator by 2^64 draws.
+	 */
+	public void jump() {
+		long t0 = 0;
+		long t1 = 0;
+		for (int i = 0; i < JUMP.length; i++) {
+			for (int b = 0; b < 64; b++) {
+				if ((JUMP[i] & (1L << b)) != 0) {
+					t0 ^= s0;
+					t1 ^= s1;
+				}
+				nextLong();
+			}
+		}
+		s0 = t0;
+		s1 = t1;
+	}
+
+	/**
+	 * The seed of a given run of a campaign
+	 * @param seed	the seed of the campaign
+	 * @param iRun	the index of the run
+	 * @return the seed of the run, statistically independent from the seeds of the other runs
+	 */
+	public static long runSeed(long seed, long iRun) {
+		return mix64(mix64(seed) + iRun * GOLDEN_GAMMA);
+	}
+
+	/** The output function of SplitMix64 */
+	static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}